@@ -27,6 +27,18 @@ public class BrokerConfigure {
      * 当前smart-mqtt
      */
     public static final String VERSION = "v0.13";
+    /**
+     * 推送运行队列溢出时，Topic压入无锁链栈，推送线程整批取出
+     */
+    public static final String PUSH_OVERFLOW_COALESCE = "coalesce";
+    /**
+     * 推送运行队列溢出时，Topic转入无界队列
+     */
+    public static final String PUSH_OVERFLOW_GROW = "grow";
+    /**
+     * 推送运行队列溢出时仅标记Topic，推送线程遍历全部Topic找出被标记者
+     */
+    public static final String PUSH_OVERFLOW_SCAN = "scan";
 
     static final Map<String, String> SystemEnvironments = new HashMap<>();
 
@@ -50,7 +62,7 @@ public class BrokerConfigure {
     private int bufferSize = 4 * 1024;
 
     /**
-     * topic数量限制
+     * 每个推送线程的运行队列容量，超出后按pushOverflowStrategy处理
      */
     private int topicLimit = 1024;
 
@@ -69,9 +81,49 @@ public class BrokerConfigure {
      */
     private long maxKeepAliveTime = 600000;
     /**
-     * Push线程数
+     * Qos1/2消息的Push线程数
      */
     private int pushThreadNum = Runtime.getRuntime().availableProcessors();
+    /**
+     * Qos0消息的Push线程数，与Qos1/2消息的推送线程相互独立
+     */
+    private int pushQos0ThreadNum = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /**
+     * 单轮推送中每个订阅者最多推送的消息数，未推送完的订阅者排至下一轮
+     */
+    private int pushQuantumCount = 256;
+    /**
+     * 单轮推送中每个订阅者最多推送的负载总量，单位：字节
+     */
+    private int pushQuantumBytes = 256 * 1024;
+    /**
+     * 推送写入的数据合并至单次调度遍历结束时flush，会话累计未flush的数据超过该值时提前flush，单位：字节
+     */
+    private int pushFlushBytes = 64 * 1024;
+    /**
+     * 会话待输出至网络的数据达到该值时暂停推送，单位：字节。小于等于0时按输出缓冲区容量的3/4计算
+     */
+    private int pushHighWatermark;
+    /**
+     * 暂停推送的会话待输出数据回落至该值后恢复推送，单位：字节。小于等于0时取高水位的1/4
+     */
+    private int pushLowWatermark;
+    /**
+     * Topic订阅者数量不超过该值时，由接收消息的线程直接推送，小于等于0表示不启用
+     */
+    private int pushInlineThreshold = 2;
+    /**
+     * Topic订阅者数量达到该值时分片并行推送，小于等于0表示不启用
+     */
+    private int pushFanOutThreshold = 4096;
+    /**
+     * 并行推送的线程数
+     */
+    private int pushFanOutThreadNum = Runtime.getRuntime().availableProcessors();
+    /**
+     * 推送运行队列的溢出策略
+     */
+    private String pushOverflowStrategy = PUSH_OVERFLOW_COALESCE;
 
     /**
      * 网络连接建立后，如果服务端在合理的时间内没有收到 CONNECT 报文，服务端应该关闭这个连接。
@@ -94,6 +146,21 @@ public class BrokerConfigure {
      */
     private String password;
 
+    /**
+     * 无订阅者、无保留消息且无离线会话关注的Topic，闲置超过该时长后被回收。单位：毫秒，小于等于0表示不回收
+     */
+    private long topicIdleTimeout = 0;
+
+    /**
+     * PUBLISH负载是否解码至池化内存，由消息总线、存储至推送全程引用同一份数据
+     */
+    private boolean pooledPayload;
+
+    /**
+     * 消息存储配置
+     */
+    private StoreConfigure store = new StoreConfigure();
+
     public int getPort() {
         return port;
     }
@@ -118,6 +185,14 @@ public class BrokerConfigure {
         this.pushThreadNum = pushThreadNum;
     }
 
+    public int getPushQos0ThreadNum() {
+        return pushQos0ThreadNum;
+    }
+
+    public void setPushQos0ThreadNum(int pushQos0ThreadNum) {
+        this.pushQos0ThreadNum = pushQos0ThreadNum;
+    }
+
     public String getHost() {
         return host;
     }
@@ -182,6 +257,78 @@ public class BrokerConfigure {
         this.maxPacketSize = maxPacketSize;
     }
 
+    public int getPushQuantumCount() {
+        return pushQuantumCount;
+    }
+
+    public void setPushQuantumCount(int pushQuantumCount) {
+        this.pushQuantumCount = pushQuantumCount;
+    }
+
+    public int getPushQuantumBytes() {
+        return pushQuantumBytes;
+    }
+
+    public void setPushQuantumBytes(int pushQuantumBytes) {
+        this.pushQuantumBytes = pushQuantumBytes;
+    }
+
+    public int getPushFlushBytes() {
+        return pushFlushBytes;
+    }
+
+    public void setPushFlushBytes(int pushFlushBytes) {
+        this.pushFlushBytes = pushFlushBytes;
+    }
+
+    public int getPushHighWatermark() {
+        return pushHighWatermark;
+    }
+
+    public void setPushHighWatermark(int pushHighWatermark) {
+        this.pushHighWatermark = pushHighWatermark;
+    }
+
+    public int getPushLowWatermark() {
+        return pushLowWatermark;
+    }
+
+    public void setPushLowWatermark(int pushLowWatermark) {
+        this.pushLowWatermark = pushLowWatermark;
+    }
+
+    public int getPushInlineThreshold() {
+        return pushInlineThreshold;
+    }
+
+    public void setPushInlineThreshold(int pushInlineThreshold) {
+        this.pushInlineThreshold = pushInlineThreshold;
+    }
+
+    public int getPushFanOutThreshold() {
+        return pushFanOutThreshold;
+    }
+
+    public void setPushFanOutThreshold(int pushFanOutThreshold) {
+        this.pushFanOutThreshold = pushFanOutThreshold;
+    }
+
+    public int getPushFanOutThreadNum() {
+        return pushFanOutThreadNum;
+    }
+
+    public void setPushFanOutThreadNum(int pushFanOutThreadNum) {
+        this.pushFanOutThreadNum = pushFanOutThreadNum;
+    }
+
+    public String getPushOverflowStrategy() {
+        return pushOverflowStrategy;
+    }
+
+    public void setPushOverflowStrategy(String pushOverflowStrategy) {
+        this.pushOverflowStrategy = pushOverflowStrategy;
+    }
+
     public int getTopicLimit() {
         return topicLimit;
     }
@@ -190,6 +337,30 @@ public class BrokerConfigure {
         this.topicLimit = topicLimit;
     }
 
+    public long getTopicIdleTimeout() {
+        return topicIdleTimeout;
+    }
+
+    public void setTopicIdleTimeout(long topicIdleTimeout) {
+        this.topicIdleTimeout = topicIdleTimeout;
+    }
+
+    public boolean isPooledPayload() {
+        return pooledPayload;
+    }
+
+    public void setPooledPayload(boolean pooledPayload) {
+        this.pooledPayload = pooledPayload;
+    }
+
+    public StoreConfigure getStore() {
+        return store;
+    }
+
+    public void setStore(StoreConfigure store) {
+        this.store = store;
+    }
+
     @Override
     public String toString() {
         return "BrokerConfigure{" +
@@ -197,8 +368,21 @@ public class BrokerConfigure {
                 ", port=" + port +
                 ", maxKeepAliveTime=" + maxKeepAliveTime +
                 ", pushThreadNum=" + pushThreadNum +
+                ", pushQos0ThreadNum=" + pushQos0ThreadNum +
+                ", pushQuantumCount=" + pushQuantumCount +
+                ", pushQuantumBytes=" + pushQuantumBytes +
+                ", pushFlushBytes=" + pushFlushBytes +
+                ", pushHighWatermark=" + pushHighWatermark +
+                ", pushLowWatermark=" + pushLowWatermark +
+                ", pushInlineThreshold=" + pushInlineThreshold +
+                ", pushFanOutThreshold=" + pushFanOutThreshold +
+                ", pushFanOutThreadNum=" + pushFanOutThreadNum +
+                ", pushOverflowStrategy='" + pushOverflowStrategy + '\'' +
                 ", noConnectIdleTimeout=" + noConnectIdleTimeout +
                 ", maxInflight=" + maxInflight +
+                ", topicIdleTimeout=" + topicIdleTimeout +
+                ", pooledPayload=" + pooledPayload +
+                ", store=" + store +
                 '}';
     }
 
@@ -40,6 +40,21 @@ public interface BrokerContext {
      */
     Collection<BrokerTopic> getTopics();
 
+    /**
+     * 获取按层级组织的Topic索引树
+     */
+    TopicTree getTopicTree();
+
+    /**
+     * 获取通配符订阅的索引树
+     */
+    SubscriptionTrie getSubscriptionTrie();
+
+    /**
+     * 获取推送调度的监控指标
+     */
+    PushMetrics getPushMetrics();
+
     /**
      * 获取消息总线
      *
@@ -15,7 +15,11 @@ import org.smartboot.mqtt.broker.eventbus.messagebus.consumer.RetainPersistenceC
 import org.smartboot.mqtt.broker.plugin.Plugin;
 import org.smartboot.mqtt.broker.provider.Providers;
 import org.smartboot.mqtt.broker.provider.impl.ConfiguredConnectAuthenticationProviderImpl;
+import org.smartboot.mqtt.broker.provider.impl.message.MappedFilePersistenceProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.MemoryPersistenceProvider;
 import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.broker.provider.impl.message.TieredPersistenceProvider;
+import org.smartboot.mqtt.broker.provider.impl.session.FileSessionStateProvider;
 import org.smartboot.mqtt.common.AsyncTask;
 import org.smartboot.mqtt.common.InflightQueue;
 import org.smartboot.mqtt.common.MqttMessageBuilders;
@@ -44,15 +48,11 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.ServiceLoader;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * @author 三刀
@@ -67,7 +67,15 @@ public class BrokerContextImpl implements BrokerContext {
     /**
      *
      */
-    private final ConcurrentMap<String, BrokerTopic> topicMap = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, BrokerTopic> topicMap = new ConcurrentHashMap<>();
+    /**
+     * 按层级组织的Topic索引，用于通配符订阅匹配存量Topic
+     */
+    private final TopicTree topicTree = new TopicTree();
+    /**
+     * 通配符订阅的索引树
+     */
+    private final SubscriptionTrie subscriptionTrie = new SubscriptionTrie();
     private BrokerConfigure brokerConfigure = new BrokerConfigure();
     /**
      * Keep-Alive监听线程
@@ -78,9 +86,9 @@ public class BrokerContextImpl implements BrokerContext {
     private final EventBus eventBus = new EventBusImpl(ServerEventType.types());
     private final List<Plugin> plugins = new ArrayList<>();
     private final Providers providers = new Providers();
-    private ExecutorService pushThreadPool;
     private ExecutorService retainPushThreadPool;
-    private BlockingQueue<BrokerTopic> pushTopicQueue;
+    private PushScheduler pushScheduler;
+    private final PushMetrics pushMetrics = new PushMetrics();
     /**
      * Broker Server
      */
@@ -90,7 +98,6 @@ public class BrokerContextImpl implements BrokerContext {
 
     //配置文件内容
     private String configJson;
-    private final BrokerTopic SHUTDOWN_TOPIC = new BrokerTopic("");
 
     @Override
     public void init() throws IOException {
@@ -103,13 +110,25 @@ public class BrokerContextImpl implements BrokerContext {
 
         subscribeMessageBus();
 
+        new TopicLifecycleManager(this, topicMap).start();
+
+        new SlowConsumerMonitor(this, topicMap).start();
+
         loadAndInstallPlugins();
 
         initPushThread();
         try {
+            int writeQueueSize = Math.min(brokerConfigure.getMaxInflight(), 16);
+            if (brokerConfigure.getPushHighWatermark() <= 0) {
+                brokerConfigure.setPushHighWatermark(brokerConfigure.getBufferSize() * writeQueueSize * 3 / 4);
+            }
+            if (brokerConfigure.getPushLowWatermark() <= 0 || brokerConfigure.getPushLowWatermark() >= brokerConfigure.getPushHighWatermark()) {
+                brokerConfigure.setPushLowWatermark(brokerConfigure.getPushHighWatermark() / 4);
+            }
+            processor.addPlugin(new WriteWatermarkPlugin(processor, pushScheduler));
             pagePool = new BufferPagePool(10 * 1024 * 1024, brokerConfigure.getThreadNum(), true);
-            server = new AioQuickServer(brokerConfigure.getHost(), brokerConfigure.getPort(), new MqttProtocol(brokerConfigure.getMaxPacketSize()), processor);
-            server.setBannerEnabled(false).setReadBufferSize(brokerConfigure.getBufferSize()).setWriteBuffer(brokerConfigure.getBufferSize(), Math.min(brokerConfigure.getMaxInflight(), 16)).setBufferPagePool(pagePool).setThreadNum(Math.max(2, brokerConfigure.getThreadNum()));
+            server = new AioQuickServer(brokerConfigure.getHost(), brokerConfigure.getPort(), new MqttProtocol(brokerConfigure.getMaxPacketSize(), brokerConfigure.isPooledPayload() ? pagePool : null), processor);
+            server.setBannerEnabled(false).setReadBufferSize(brokerConfigure.getBufferSize()).setWriteBuffer(brokerConfigure.getBufferSize(), writeQueueSize).setBufferPagePool(pagePool).setThreadNum(Math.max(2, brokerConfigure.getThreadNum()));
             server.start();
             System.out.println(BrokerConfigure.BANNER + "\r\n :: smart-mqtt broker" + "::\t(" + BrokerConfigure.VERSION + ")");
             System.out.println("❤️Gitee: https://gitee.com/smartboot/smart-mqtt");
@@ -134,63 +153,49 @@ public class BrokerContextImpl implements BrokerContext {
     private void initProvider() {
         //连接鉴权处理器
         providers.setConnectAuthenticationProvider(new ConfiguredConnectAuthenticationProviderImpl(this));
+        //消息持久化
+        StoreConfigure storeConfigure = brokerConfigure.getStore();
+        //校验慢速订阅者策略
+        SlowConsumerPolicy defaultPolicy = SlowConsumerPolicy.resolve(storeConfigure, "");
+        storeConfigure.getTopics().stream().filter(topicConfigure -> topicConfigure.getSlowConsumerPolicy() != null).forEach(topicConfigure -> {
+            SlowConsumerPolicy policy = new SlowConsumerPolicy(topicConfigure.getSlowConsumerPolicy(), topicConfigure.getMaxLagTime() > 0 ? topicConfigure.getMaxLagTime() : storeConfigure.getMaxLagTime());
+            if (policy.isSpill() && StoreConfigure.TYPE_MEMORY.equals(storeConfigure.getType())) {
+                LOGGER.warn("slowConsumerPolicy spill of topic:{} is not supported by memory store, fallback to drop", topicConfigure.getPattern());
+            }
+        });
+        if (defaultPolicy.isSpill() && StoreConfigure.TYPE_MEMORY.equals(storeConfigure.getType())) {
+            LOGGER.warn("slowConsumerPolicy spill is not supported by memory store, fallback to drop");
+        }
+        if (StoreConfigure.TYPE_FILE.equals(storeConfigure.getType())) {
+            MappedFilePersistenceProvider persistenceProvider = new MappedFilePersistenceProvider(storeConfigure);
+            providers.setPersistenceProvider(persistenceProvider);
+            eventBus.subscribe(ServerEventType.BROKER_DESTROY, (eventType, brokerContext) -> persistenceProvider.close());
+        } else if (StoreConfigure.TYPE_TIERED.equals(storeConfigure.getType())) {
+            TieredPersistenceProvider persistenceProvider = new TieredPersistenceProvider(storeConfigure);
+            providers.setPersistenceProvider(persistenceProvider);
+            eventBus.subscribe(ServerEventType.BROKER_DESTROY, (eventType, brokerContext) -> persistenceProvider.close());
+        } else {
+            providers.setPersistenceProvider(new MemoryPersistenceProvider(storeConfigure));
+        }
+        //会话状态持久化
+        if (StoreConfigure.TYPE_FILE.equals(storeConfigure.getSessionType())) {
+            FileSessionStateProvider sessionStateProvider = new FileSessionStateProvider(storeConfigure.getSessionDir(), storeConfigure.getSessionFlushInterval());
+            providers.setSessionStateProvider(sessionStateProvider);
+            eventBus.subscribe(ServerEventType.BROKER_DESTROY, (eventType, brokerContext) -> sessionStateProvider.close());
+        }
     }
 
     private void initPushThread() {
-        if (brokerConfigure.getTopicLimit() <= 0) {
-            brokerConfigure.setTopicLimit(10);
+        int cpuNum = Runtime.getRuntime().availableProcessors();
+        if (brokerConfigure.getPushThreadNum() <= 0) {
+            brokerConfigure.setPushThreadNum(cpuNum);
         }
-        pushTopicQueue = brokerConfigure.getTopicLimit() <= 4096 ? new ArrayBlockingQueue<>(brokerConfigure.getTopicLimit()) : new LinkedBlockingQueue<>(brokerConfigure.getTopicLimit());
-        retainPushThreadPool = Executors.newFixedThreadPool(getBrokerConfigure().getPushThreadNum());
-        pushThreadPool = Executors.newFixedThreadPool(getBrokerConfigure().getPushThreadNum(), new ThreadFactory() {
-            int index = 0;
-
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "broker-push-" + (index++));
-            }
-        });
-
-        for (int i = 0; i < getBrokerConfigure().getPushThreadNum(); i++) {
-            pushThreadPool.execute(new AsyncTask() {
-                @Override
-                public void execute() {
-                    while (true) {
-                        BrokerTopic brokerTopic;
-                        try {
-                            brokerTopic = pushTopicQueue.take();
-
-                            int size = pushTopicQueue.size();
-                            if (size > 1024) {
-                                System.out.println("queue:" + size);
-                            }
-                            //Broker停止服务
-                            if (SHUTDOWN_TOPIC == brokerTopic) {
-                                pushTopicQueue.put(SHUTDOWN_TOPIC);
-                                break;
-                            }
-                        } catch (InterruptedException e) {
-                            LOGGER.error("pushTopicQueue exception", e);
-                            break;
-                        }
-                        try {
-                            //存在待输出消息
-                            Collection<TopicSubscriber> subscribers = brokerTopic.getConsumeOffsets().values();
-                            subscribers.stream().filter(topicSubscriber -> topicSubscriber.isReady() && topicSubscriber.getPushVersion() != brokerTopic.getVersion().get()).forEach(topicSubscriber -> topicSubscriber.batchPublish(BrokerContextImpl.this));
-                            brokerTopic.setPushing(false);
-                            for (TopicSubscriber subscriber : subscribers) {
-                                if (subscriber.getPushVersion() != brokerTopic.getVersion().get()) {
-                                    notifyPush(brokerTopic);
-                                    break;
-                                }
-                            }
-                        } catch (Exception e) {
-                            LOGGER.error("brokerTopic:{} push message exception", brokerTopic.getTopic(), e);
-                        }
-                    }
-                }
-            });
+        if (brokerConfigure.getPushQos0ThreadNum() <= 0) {
+            brokerConfigure.setPushQos0ThreadNum(Math.max(1, cpuNum / 2));
         }
+        retainPushThreadPool = Executors.newFixedThreadPool(getBrokerConfigure().getPushThreadNum());
+        pushScheduler = new PushScheduler(this);
+        pushScheduler.start();
     }
 
     /**
@@ -217,6 +222,17 @@ public class BrokerContextImpl implements BrokerContext {
                 eventBus.publish(ServerEventType.MESSAGE_BUS_CONSUMED, topic);
             }
         });
+        //维护Topic索引
+        eventBus.subscribe(ServerEventType.TOPIC_CREATE, (eventType, brokerTopic) -> topicTree.add(brokerTopic));
+        eventBus.subscribe(ServerEventType.TOPIC_REMOVE, (eventType, brokerTopic) -> topicTree.remove(brokerTopic));
+        //新建的Topic绑定至匹配的通配符订阅
+        eventBus.subscribe(ServerEventType.TOPIC_CREATE, (eventType, brokerTopic) -> subscriptionTrie.match(brokerTopic.getTopicToken(), (session, topicFilterToken, mqttQoS) -> {
+            try {
+                session.subscribeCreatedTopic(topicFilterToken, mqttQoS, brokerTopic);
+            } catch (Exception e) {
+                LOGGER.error("client:{} subscribe topic:{} exception", session.getClientId(), brokerTopic.getTopic(), e);
+            }
+        }));
         //连接鉴权超时监控
         eventBus.subscribe(ServerEventType.SESSION_CREATE, new ConnectIdleTimeMonitorSubscriber(this));
 
@@ -226,7 +242,7 @@ public class BrokerContextImpl implements BrokerContext {
         //消息总线消费完成，触发消息推送
         eventBus.subscribe(ServerEventType.MESSAGE_BUS_CONSUMED, (eventType, brokerTopic) -> {
             brokerTopic.getVersion().incrementAndGet();
-            notifyPush(brokerTopic);
+            pushScheduler.notifyPush(brokerTopic);
         });
 
         //一个新的订阅建立时，对每个匹配的主题名，如果存在最近保留的消息，它必须被发送给这个订阅者
@@ -237,11 +253,11 @@ public class BrokerContextImpl implements BrokerContext {
                     @Override
                     public void execute() {
                         AsyncTask task = this;
-                        PersistenceMessage storedMessage = providers.getRetainMessageProvider().get(subscriber.getTopic().getTopic(), subscriber.getRetainConsumerOffset());
-                        if (storedMessage == null || storedMessage.getCreateTime() > subscriber.getLatestSubscribeTime()) {
+                        PersistenceMessage storedMessage = subscriber.getRetainMessage(providers.getRetainMessageProvider());
+                        //保留消息不存在或已被消费
+                        if (storedMessage == null || storedMessage.getOffset() < subscriber.getRetainConsumerOffset() || storedMessage.getCreateTime() > subscriber.getLatestSubscribeTime()) {
                             subscriber.setReady(true);
-                            BrokerTopic topic = subscriber.getTopic();
-                            notifyPush(topic);
+                            pushScheduler.schedule(subscriber);
 
                             //完成retain消息的消费，正式开始监听Topic
                             return;
@@ -277,30 +293,13 @@ public class BrokerContextImpl implements BrokerContext {
         eventBus.subscribe(ServerEventType.SUBSCRIBE_REFRESH_TOPIC, (eventType, subscriber) -> {
             LOGGER.info("刷新订阅关系, {} 订阅了topic: {}", subscriber.getTopicFilterToken().getTopicFilter(), subscriber.getTopic().getTopic());
             subscriber.setReady(true);
+            pushScheduler.schedule(subscriber);
         });
         //打印消息日志
 //        eventBus.subscribe(Arrays.asList(EventType.RECEIVE_MESSAGE, EventType.WRITE_MESSAGE), new
 //        MessageLoggerSubscriber());
     }
 
-    private void notifyPush(BrokerTopic topic) {
-        if (topic.isPushing()) {
-            return;
-        }
-        synchronized (topic) {
-            //已加入推送队列
-            if (topic.isPushing()) {
-                return;
-            }
-            try {
-                topic.setPushing(true);
-                pushTopicQueue.put(topic);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
-
     private void updateBrokerConfigure() throws IOException {
         //加载自定义配置文件
         loadYamlConfig();
@@ -370,12 +369,21 @@ public class BrokerContextImpl implements BrokerContext {
 
     @Override
     public BrokerTopic getOrCreateTopic(String topic) {
-        return topicMap.computeIfAbsent(topic, topicName -> {
-            ValidateUtils.isTrue(!MqttUtil.containsTopicWildcards(topicName), "invalid topicName: " + topicName);
-            BrokerTopic newTopic = new BrokerTopic(topicName);
-            eventBus.publish(ServerEventType.TOPIC_CREATE, newTopic);
-            return newTopic;
-        });
+        BrokerTopic brokerTopic = topicMap.computeIfAbsent(topic, this::newTopic);
+        if (brokerTopic.isDestroyed()) {
+            //Topic正在回收，compute等待回收完成后重建
+            brokerTopic = topicMap.compute(topic, (topicName, t) -> t == null || t.isDestroyed() ? newTopic(topicName) : t);
+        }
+        brokerTopic.touch();
+        return brokerTopic;
+    }
+
+    private BrokerTopic newTopic(String topicName) {
+        ValidateUtils.isTrue(!MqttUtil.containsTopicWildcards(topicName), "invalid topicName: " + topicName);
+        BrokerTopic newTopic = new BrokerTopic(topicName);
+        newTopic.setSlowConsumerPolicy(SlowConsumerPolicy.resolve(brokerConfigure.getStore(), topicName));
+        eventBus.publish(ServerEventType.TOPIC_CREATE, newTopic);
+        return newTopic;
     }
 
     @Override
@@ -383,6 +391,21 @@ public class BrokerContextImpl implements BrokerContext {
         return topicMap.values();
     }
 
+    @Override
+    public TopicTree getTopicTree() {
+        return topicTree;
+    }
+
+    @Override
+    public SubscriptionTrie getSubscriptionTrie() {
+        return subscriptionTrie;
+    }
+
+    @Override
+    public PushMetrics getPushMetrics() {
+        return pushMetrics;
+    }
+
     @Override
     public MessageBus getMessageBus() {
         return messageBusSubscriber;
@@ -460,8 +483,7 @@ public class BrokerContextImpl implements BrokerContext {
         LOGGER.info("destroy broker...");
         eventBus.publish(ServerEventType.BROKER_DESTROY, this);
         messageBusExecutorService.shutdown();
-        pushTopicQueue.offer(SHUTDOWN_TOPIC);
-        pushThreadPool.shutdown();
+        pushScheduler.shutdown();
         server.shutdown();
         pagePool.release();
         //卸载插件
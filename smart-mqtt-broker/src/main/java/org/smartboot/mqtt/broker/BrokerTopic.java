@@ -2,8 +2,6 @@ package org.smartboot.mqtt.broker;
 
 import org.smartboot.mqtt.common.Topic;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -16,30 +14,74 @@ public class BrokerTopic extends Topic {
     /**
      * 当前订阅的消费者
      */
-    private final Map<MqttSession, TopicSubscriber> consumeOffsets = new ConcurrentHashMap<>();
+    private final TopicSubscriberRegistry subscribers = new TopicSubscriberRegistry();
     private final AtomicInteger version = new AtomicInteger();
     /**
-     * 当前Topic是否圈闭推送完成
+     * 各推送通道的调度状态
      */
-    private boolean pushing;
+    private final TopicPushState[] pushStates = {new TopicPushState(), new TopicPushState()};
+    /**
+     * 慢速订阅者的处理策略
+     */
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DEFAULT;
+    /**
+     * 最近一次活跃时间，用于回收闲置的Topic
+     */
+    private volatile long latestActiveTime = System.currentTimeMillis();
+    /**
+     * 是否已被回收
+     */
+    private volatile boolean destroyed;
 
     public BrokerTopic(String topic) {
         super(topic);
     }
 
-    public Map<MqttSession, TopicSubscriber> getConsumeOffsets() {
-        return consumeOffsets;
+    public TopicSubscriberRegistry getSubscribers() {
+        return subscribers;
     }
 
     public AtomicInteger getVersion() {
         return version;
     }
 
+    /**
+     * 是否存在待推送的通道
+     */
     public boolean isPushing() {
-        return pushing;
+        for (TopicPushState pushState : pushStates) {
+            if (pushState.isPushing()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    TopicPushState getPushState(int lane) {
+        return pushStates[lane];
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public void touch() {
+        latestActiveTime = System.currentTimeMillis();
+    }
+
+    public long getLatestActiveTime() {
+        return latestActiveTime;
+    }
+
+    public boolean isDestroyed() {
+        return destroyed;
     }
 
-    public void setPushing(boolean pushing) {
-        this.pushing = pushing;
+    void setDestroyed(boolean destroyed) {
+        this.destroyed = destroyed;
     }
 }
@@ -26,6 +26,7 @@ import org.smartboot.mqtt.common.message.MqttPubRelMessage;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 import org.smartboot.mqtt.common.message.MqttSubscribeMessage;
 import org.smartboot.mqtt.common.message.MqttUnsubscribeMessage;
+import org.smartboot.mqtt.common.protocol.MqttProtocol;
 import org.smartboot.socket.StateMachineEnum;
 import org.smartboot.socket.extension.processor.AbstractMessageProcessor;
 import org.smartboot.socket.transport.AioSession;
@@ -77,7 +78,14 @@ public class MqttBrokerMessageProcessor extends AbstractMessageProcessor<MqttMes
             MqttSession mqttSession = onlineSessions.get(session.getSessionID());
             mqttContext.getEventBus().publish(EventType.RECEIVE_MESSAGE, EventObject.newEventObject(mqttSession, msg));
             mqttSession.setLatestReceiveMessageTime(System.currentTimeMillis());
-            processor.process(mqttContext, mqttSession, msg);
+            try {
+                processor.process(mqttContext, mqttSession, msg);
+            } finally {
+                //释放解码时持有的池化负载，需在处理完毕后继续读取负载的消费方须自行retain
+                if (msg instanceof MqttPublishMessage) {
+                    ((MqttPublishMessage) msg).getPayload().release();
+                }
+            }
         } else {
             System.err.println("unSupport message: " + msg);
         }
@@ -92,6 +100,8 @@ public class MqttBrokerMessageProcessor extends AbstractMessageProcessor<MqttMes
                 onlineSessions.put(session.getSessionID(), mqttSession);
                 break;
             case SESSION_CLOSED:
+                //释放未接收完整的大报文
+                MqttProtocol.release(session);
                 onlineSessions.remove(session.getSessionID()).disconnect();
                 break;
             case PROCESS_EXCEPTION:
@@ -3,23 +3,30 @@ package org.smartboot.mqtt.broker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartboot.mqtt.broker.eventbus.ServerEventType;
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
 import org.smartboot.mqtt.broker.provider.impl.session.SessionState;
 import org.smartboot.mqtt.common.AbstractSession;
+import org.smartboot.mqtt.common.DefaultMqttWriter;
 import org.smartboot.mqtt.common.InflightQueue;
 import org.smartboot.mqtt.common.MqttWriter;
 import org.smartboot.mqtt.common.QosPublisher;
 import org.smartboot.mqtt.common.TopicToken;
 import org.smartboot.mqtt.common.enums.MqttQoS;
-import org.smartboot.mqtt.common.eventbus.EventBusSubscriber;
 import org.smartboot.mqtt.common.eventbus.EventType;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
-import org.smartboot.mqtt.common.util.TopicTokenUtil;
 import org.smartboot.mqtt.common.util.ValidateUtils;
 import org.smartboot.socket.transport.AioSession;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 会话，客户端和服务端之间的状态交互。
@@ -48,6 +55,35 @@ public class MqttSession extends AbstractSession {
      */
     private MqttPublishMessage willMessage;
     private boolean cleanSession;
+    /**
+     * 推送线程已写入输出缓冲区但尚未flush的估算字节数
+     */
+    private final AtomicInteger unflushedBytes = new AtomicInteger();
+    /**
+     * 是否已登记至推送线程的待flush列表
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /**
+     * 用于统计写入输出缓冲区的字节数，为null时不启用写背压
+     */
+    private final DefaultMqttWriter countingWriter;
+    /**
+     * 已由传输层输出至网络的字节数
+     */
+    private final AtomicLong sentBytes = new AtomicLong();
+    /**
+     * 待输出数据达到高水位时暂停推送，回落至低水位后恢复
+     */
+    private final int highWatermark;
+    private final int lowWatermark;
+    /**
+     * 输出缓冲区是否已饱和
+     */
+    private final AtomicBoolean writeParked = new AtomicBoolean();
+    /**
+     * 因输出缓冲区饱和而暂停推送的订阅者
+     */
+    private final Set<TopicSubscriber> parkedSubscribers = ConcurrentHashMap.newKeySet();
 
     public MqttSession(BrokerContext mqttContext, AioSession session, QosPublisher qosPublisher, MqttWriter mqttWriter) {
         super(qosPublisher, mqttContext.getEventBus());
@@ -55,6 +91,9 @@ public class MqttSession extends AbstractSession {
         this.session = session;
         this.mqttWriter = mqttWriter;
         this.inflightQueue = new InflightQueue(mqttContext.getBrokerConfigure().getMaxInflight());
+        this.countingWriter = mqttWriter instanceof DefaultMqttWriter ? (DefaultMqttWriter) mqttWriter : null;
+        this.highWatermark = mqttContext.getBrokerConfigure().getPushHighWatermark();
+        this.lowWatermark = mqttContext.getBrokerConfigure().getPushLowWatermark();
         mqttContext.getEventBus().publish(ServerEventType.SESSION_CREATE, this);
     }
 
@@ -63,6 +102,84 @@ public class MqttSession extends AbstractSession {
         return inflightQueue;
     }
 
+    /**
+     * 累计推送写入但尚未flush的字节数
+     *
+     * @return 累计后的字节数
+     */
+    int addUnflushedBytes(int bytes) {
+        return unflushedBytes.addAndGet(bytes);
+    }
+
+    int getUnflushedBytes() {
+        return unflushedBytes.get();
+    }
+
+    /**
+     * @return false:已登记至待flush列表
+     */
+    boolean markFlushScheduled() {
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * 将推送写入的数据输出至网络。需先清除登记状态，期间其他推送线程的写入可重新登记
+     */
+    void flushPushed() {
+        flushScheduled.set(false);
+        unflushedBytes.set(0);
+        flush();
+    }
+
+    /**
+     * 已写入输出缓冲区但尚未输出至网络的字节数
+     */
+    long getOutboundBytes() {
+        return countingWriter == null ? 0 : countingWriter.getWrittenBytes() - sentBytes.get();
+    }
+
+    /**
+     * 输出缓冲区达到高水位时暂停订阅者的推送，待传输层输出至低水位后重新调度
+     *
+     * @return true:订阅者已暂停推送
+     */
+    boolean parkIfSaturated(TopicSubscriber subscriber, PushScheduler scheduler) {
+        if (highWatermark <= 0 || getOutboundBytes() < highWatermark) {
+            return false;
+        }
+        subscriber.setParked(true);
+        parkedSubscribers.add(subscriber);
+        writeParked.set(true);
+        //待输出的数据需flush，否则不会产生输出完成事件
+        flushPushed();
+        //登记期间输出缓冲区可能已排空
+        resumeIfDrained(scheduler);
+        return true;
+    }
+
+    /**
+     * 传输层完成一次输出
+     */
+    void onWritten(int size, PushScheduler scheduler) {
+        sentBytes.addAndGet(size);
+        if (writeParked.get()) {
+            resumeIfDrained(scheduler);
+        }
+    }
+
+    private void resumeIfDrained(PushScheduler scheduler) {
+        if (getOutboundBytes() > lowWatermark || !writeParked.compareAndSet(true, false)) {
+            return;
+        }
+        Iterator<TopicSubscriber> iterator = parkedSubscribers.iterator();
+        while (iterator.hasNext()) {
+            TopicSubscriber subscriber = iterator.next();
+            iterator.remove();
+            subscriber.setParked(false);
+            scheduler.schedule(subscriber);
+        }
+    }
+
     public boolean isCleanSession() {
         return cleanSession;
     }
@@ -144,55 +261,56 @@ public class MqttSession extends AbstractSession {
         }
 
         //通配符匹配存量Topic
-        for (BrokerTopic topic : mqttContext.getTopics()) {
-            if (TopicTokenUtil.match(topic.getTopicToken(), topicToken) && mqttContext.getProviders().getSubscribeProvider().subscribeTopic(topic.getTopic(), this)) {
-                TopicSubscriber subscription = subscribeSuccess(mqttQoS, topicToken, topic);
-                if (newSubscribe) {
-                    mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_TOPIC, subscription);
-                } else {
-                    mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_REFRESH_TOPIC, subscription);
-                }
+        List<TopicSubscriber> subscriptions = new ArrayList<>();
+        mqttContext.getTopicTree().match(topicToken, topic -> {
+            if (mqttContext.getProviders().getSubscribeProvider().subscribeTopic(topic.getTopic(), this)) {
+                subscriptions.add(subscribeSuccess(mqttQoS, topicToken, topic));
             }
+        });
+        if (newSubscribe) {
+            //订阅建立后一次性取得过滤器下的保留消息，无保留消息的Topic无需再逐个查询。
+            //此后写入的保留消息晚于订阅时间，由常规推送送达
+            Map<String, PersistenceMessage> retainMessages = new HashMap<>();
+            mqttContext.getProviders().getRetainMessageProvider().forEach(topicToken, message -> retainMessages.put(message.getTopic(), message));
+            subscriptions.forEach(subscription -> {
+                subscription.setRetainMessage(retainMessages.get(subscription.getTopic().getTopic()));
+                mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_TOPIC, subscription);
+            });
+        } else {
+            subscriptions.forEach(subscription -> mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_REFRESH_TOPIC, subscription));
         }
 
         //通配符匹配增量Topic
         if (!subscribers.containsKey(topicFilter)) {
             subscribers.put(topicFilter, new TopicFilterSubscriber(topicToken, mqttQoS));
         }
-        if (newSubscribe) {
-            mqttContext.getEventBus().subscribe(ServerEventType.TOPIC_CREATE, new EventBusSubscriber<BrokerTopic>() {
-                @Override
-                public boolean enable() {
-                    boolean enable = !disconnect && subscribers.containsKey(topicFilter);
-                    if (!enable) {
-                        LOGGER.info("current event is disable,quit topic:{} monitor", topicFilter);
-                    }
-                    return enable;
-                }
-
-                @Override
-                public void subscribe(EventType<BrokerTopic> eventType, BrokerTopic object) {
-                    if (TopicTokenUtil.match(object.getTopicToken(), topicToken) && mqttContext.getProviders().getSubscribeProvider().subscribeTopic(object.getTopic(), MqttSession.this)) {
-                        TopicSubscriber subscription = MqttSession.this.subscribeSuccess(mqttQoS, topicToken, object);
-                        mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_TOPIC, subscription);
-                    }
-                }
-            });
+        mqttContext.getSubscriptionTrie().subscribe(topicToken, this, mqttQoS);
+    }
+
+    /**
+     * 新建的Topic匹配当前会话的通配符订阅
+     */
+    void subscribeCreatedTopic(TopicToken topicToken, MqttQoS mqttQoS, BrokerTopic topic) {
+        if (disconnect || !subscribers.containsKey(topicToken.getTopicFilter())) {
+            return;
+        }
+        if (mqttContext.getProviders().getSubscribeProvider().subscribeTopic(topic.getTopic(), this)) {
+            TopicSubscriber subscription = subscribeSuccess(mqttQoS, topicToken, topic);
+            mqttContext.getEventBus().publish(ServerEventType.SUBSCRIBE_TOPIC, subscription);
         }
     }
 
     /**
-     * retain消息消费点位记录
+     * retain消息消费点位记录，以Topic名称为key，Topic被回收重建后依然有效
      */
-    private final Map<BrokerTopic, Long> retainOffsetCache = new HashMap<>();
+    private final Map<String, Long> retainOffsetCache = new HashMap<>();
 
     private TopicSubscriber subscribeSuccess(MqttQoS mqttQoS, TopicToken topicToken, BrokerTopic topic) {
         long latestOffset = mqttContext.getProviders().getPersistenceProvider().getLatestOffset(topic.getTopic());
         // retain消费点位优先以缓存为准
-        Long retainOffset = retainOffsetCache.get(topic);
-        long oldestRetainOffset = mqttContext.getProviders().getRetainMessageProvider().getOldestOffset(topic.getTopic());
-        if (retainOffset == null || retainOffset < oldestRetainOffset) {
-            retainOffset = oldestRetainOffset;
+        Long retainOffset = retainOffsetCache.get(topic.getTopic());
+        if (retainOffset == null) {
+            retainOffset = 0L;
         }
         //以当前消息队列的最新点位为起始点位
         TopicSubscriber subscription = new TopicSubscriber(topic, this, mqttQoS, latestOffset + 1, retainOffset);
@@ -202,11 +320,12 @@ public class MqttSession extends AbstractSession {
         // 那么必须使用新的订阅彻底替换现存的订阅。
         // 新订阅的主题过滤器和之前订阅的相同，但是它的最大 QoS 值可以不同。
         ValidateUtils.isTrue(!disconnect, "session has closed,can not subscribe topic");
+        topic.touch();
 
         subscribers.values().forEach(topicFilterSubscriber -> {
             TopicSubscriber oldOffset = topicFilterSubscriber.getTopicSubscribers().remove(topic.getTopic());
             if (oldOffset != null) {
-                TopicSubscriber consumerOffset = oldOffset.getTopic().getConsumeOffsets().remove(this);
+                TopicSubscriber consumerOffset = oldOffset.getTopic().getSubscribers().remove(this);
                 LOGGER.info("remove topic:{} {},", topic, oldOffset == consumerOffset ? "success" : "fail");
             }
         });
@@ -218,12 +337,16 @@ public class MqttSession extends AbstractSession {
         } else {
             topicFilterSubscriber.getTopicSubscribers().put(subscription.getTopic().getTopic(), subscription);
         }
-        TopicSubscriber preTopicSubscriber = subscription.getTopic().getConsumeOffsets().put(this, subscription);
+        TopicSubscriber preTopicSubscriber = subscription.getTopic().getSubscribers().put(this, subscription);
         if (preTopicSubscriber != null) {
             LOGGER.error("invalid state...");
         } else {
             LOGGER.debug("new subscribe topic:{} success by topicFilter:{}", subscription.getTopic().getTopic(), subscription.getTopicFilterToken().getTopicFilter());
         }
+        //Topic已被回收，改为订阅新建的Topic
+        if (topic.isDestroyed()) {
+            return subscribeSuccess(mqttQoS, topicToken, mqttContext.getOrCreateTopic(topic.getTopic()));
+        }
 
         return subscription;
     }
@@ -238,10 +361,14 @@ public class MqttSession extends AbstractSession {
         if (filterSubscriber == null) {
             return;
         }
+        if (filterSubscriber.getTopicFilterToken().isWildcards()) {
+            mqttContext.getSubscriptionTrie().unsubscribe(filterSubscriber.getTopicFilterToken(), this);
+        }
         filterSubscriber.getTopicSubscribers()
                 .values().forEach(subscriber -> {
-                    TopicSubscriber removeSubscriber = subscriber.getTopic().getConsumeOffsets().remove(this);
-                    retainOffsetCache.put(subscriber.getTopic(), subscriber.getRetainConsumerOffset());
+                    TopicSubscriber removeSubscriber = subscriber.getTopic().getSubscribers().remove(this);
+                    subscriber.getTopic().touch();
+                    retainOffsetCache.put(subscriber.getTopic().getTopic(), subscriber.getRetainConsumerOffset());
                     if (subscriber == removeSubscriber) {
                         LOGGER.debug("remove subscriber:{} success!", subscriber.getTopic().getTopic());
                     } else {
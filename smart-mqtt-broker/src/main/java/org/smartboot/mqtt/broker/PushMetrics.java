@@ -0,0 +1,96 @@
+package org.smartboot.mqtt.broker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 推送调度的监控指标
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public class PushMetrics {
+    /**
+     * 运行队列已满，Topic转入溢出处理的次数
+     */
+    private final LongAdder overflowCount = new LongAdder();
+    /**
+     * 从溢出区取回并完成调度的Topic数
+     */
+    private final LongAdder overflowRecoveredCount = new LongAdder();
+    /**
+     * scan策略下遍历全部Topic的次数
+     */
+    private final LongAdder sweepCount = new LongAdder();
+    /**
+     * 由接收消息的线程直接完成推送的次数
+     */
+    private final LongAdder inlinePushCount = new LongAdder();
+    /**
+     * 慢速订阅者因消息已被淘汰而跳过的消息数
+     */
+    private final LongAdder droppedCount = new LongAdder();
+    /**
+     * 因滞后过久而被断开的连接数
+     */
+    private final LongAdder slowConsumerDisconnectCount = new LongAdder();
+
+    void incrementOverflow() {
+        overflowCount.increment();
+    }
+
+    void incrementOverflowRecovered() {
+        overflowRecoveredCount.increment();
+    }
+
+    void incrementSweep() {
+        sweepCount.increment();
+    }
+
+    void incrementInlinePush() {
+        inlinePushCount.increment();
+    }
+
+    void addDropped(long count) {
+        droppedCount.add(count);
+    }
+
+    void incrementSlowConsumerDisconnect() {
+        slowConsumerDisconnectCount.increment();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public long getOverflowRecoveredCount() {
+        return overflowRecoveredCount.sum();
+    }
+
+    public long getSweepCount() {
+        return sweepCount.sum();
+    }
+
+    public long getInlinePushCount() {
+        return inlinePushCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getSlowConsumerDisconnectCount() {
+        return slowConsumerDisconnectCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PushMetrics{" +
+                "overflowCount=" + getOverflowCount() +
+                ", overflowRecoveredCount=" + getOverflowRecoveredCount() +
+                ", sweepCount=" + getSweepCount() +
+                ", inlinePushCount=" + getInlinePushCount() +
+                ", droppedCount=" + getDroppedCount() +
+                ", slowConsumerDisconnectCount=" + getSlowConsumerDisconnectCount() +
+                '}';
+    }
+}
@@ -0,0 +1,214 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.util.ValidateUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * 推送线程的运行队列，多生产者单消费者。
+ * <p>
+ * 生产者通过CAS占用环形数组的槽位，任何情况下都不会阻塞。环形数组已满时按溢出策略处理：
+ * <ul>
+ *     <li>coalesce：Topic压入无锁链栈，消费者一次性取走整批，不额外分配内存</li>
+ *     <li>grow：Topic转入无界链表队列</li>
+ *     <li>scan：仅标记Topic，消费者遍历全部Topic找出被标记的Topic</li>
+ * </ul>
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+class PushRunQueue {
+    private final AtomicReferenceArray<BrokerTopic> ring;
+    private final int mask;
+    /**
+     * 生产者写入位置
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * 消费者读取位置，仅由消费者更新
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final String overflowStrategy;
+    private final PushMetrics metrics;
+    /**
+     * 所属的推送通道，溢出标记记录于Topic在该通道的调度状态中
+     */
+    private final int lane;
+    /**
+     * coalesce策略：溢出Topic组成的链栈
+     */
+    private final AtomicReference<BrokerTopic> coalesceStack = new AtomicReference<>();
+    /**
+     * coalesce策略：消费者已取出、尚未处理完的批次
+     */
+    private BrokerTopic coalesceBatch;
+    /**
+     * grow策略：溢出Topic队列
+     */
+    private final Queue<BrokerTopic> growQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * scan策略：存在被标记的Topic
+     */
+    private volatile boolean sweepNeeded;
+    private final Collection<BrokerTopic> topics;
+    /**
+     * scan策略：判断Topic是否归属于当前队列
+     */
+    private final Predicate<BrokerTopic> owner;
+    private Iterator<BrokerTopic> sweepIterator;
+    /**
+     * 连续从环形数组取出的次数，达到容量后优先处理溢出区，避免溢出的Topic饥饿
+     */
+    private int ringPolls;
+
+    PushRunQueue(int lane, int capacity, String overflowStrategy, PushMetrics metrics, Collection<BrokerTopic> topics, Predicate<BrokerTopic> owner) {
+        ValidateUtils.isTrue(BrokerConfigure.PUSH_OVERFLOW_COALESCE.equals(overflowStrategy) || BrokerConfigure.PUSH_OVERFLOW_GROW.equals(overflowStrategy) || BrokerConfigure.PUSH_OVERFLOW_SCAN.equals(overflowStrategy), "invalid push overflow strategy: " + overflowStrategy);
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.lane = lane;
+        this.overflowStrategy = overflowStrategy;
+        this.metrics = metrics;
+        this.topics = topics;
+        this.owner = owner;
+    }
+
+    /**
+     * 加入队列，调用方需保证同一Topic不会重复加入
+     *
+     * @return true:环形数组已满，Topic进入溢出区
+     */
+    boolean offer(BrokerTopic topic) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() > mask) {
+                overflow(topic);
+                return true;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        ring.lazySet((int) t & mask, topic);
+        return false;
+    }
+
+    /**
+     * 仅限消费者调用
+     */
+    BrokerTopic poll() {
+        if (ringPolls > mask) {
+            ringPolls = 0;
+            BrokerTopic topic = pollOverflow();
+            if (topic != null) {
+                return topic;
+            }
+        }
+        BrokerTopic topic = pollRing();
+        if (topic != null) {
+            ringPolls++;
+            return topic;
+        }
+        ringPolls = 0;
+        return pollOverflow();
+    }
+
+    /**
+     * 仅限消费者调用
+     */
+    boolean isEmpty() {
+        return head.get() == tail.get() && coalesceBatch == null && coalesceStack.get() == null && growQueue.isEmpty() && !sweepNeeded && sweepIterator == null;
+    }
+
+    private BrokerTopic pollRing() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        BrokerTopic topic;
+        //生产者已占用槽位但尚未写入
+        while ((topic = ring.get(index)) == null) {
+            Thread.yield();
+        }
+        ring.lazySet(index, null);
+        head.lazySet(h + 1);
+        return topic;
+    }
+
+    private void overflow(BrokerTopic topic) {
+        metrics.incrementOverflow();
+        switch (overflowStrategy) {
+            case BrokerConfigure.PUSH_OVERFLOW_GROW:
+                growQueue.offer(topic);
+                break;
+            case BrokerConfigure.PUSH_OVERFLOW_SCAN:
+                topic.getPushState(lane).getOverflowed().set(true);
+                sweepNeeded = true;
+                break;
+            default:
+                BrokerTopic top;
+                do {
+                    top = coalesceStack.get();
+                    topic.getPushState(lane).setOverflowNext(top);
+                } while (!coalesceStack.compareAndSet(top, topic));
+                break;
+        }
+    }
+
+    private BrokerTopic pollOverflow() {
+        BrokerTopic topic;
+        switch (overflowStrategy) {
+            case BrokerConfigure.PUSH_OVERFLOW_GROW:
+                topic = growQueue.poll();
+                break;
+            case BrokerConfigure.PUSH_OVERFLOW_SCAN:
+                topic = sweep();
+                break;
+            default:
+                if (coalesceBatch == null) {
+                    coalesceBatch = coalesceStack.getAndSet(null);
+                }
+                topic = coalesceBatch;
+                if (topic != null) {
+                    TopicPushState pushState = topic.getPushState(lane);
+                    coalesceBatch = pushState.getOverflowNext();
+                    pushState.setOverflowNext(null);
+                }
+                break;
+        }
+        if (topic != null) {
+            metrics.incrementOverflowRecovered();
+        }
+        return topic;
+    }
+
+    /**
+     * 遍历全部Topic，逐个取出被标记的Topic
+     */
+    private BrokerTopic sweep() {
+        if (sweepIterator == null) {
+            if (!sweepNeeded) {
+                return null;
+            }
+            //遍历开始前清除标记，遍历期间新增的溢出Topic由下一次遍历处理
+            sweepNeeded = false;
+            metrics.incrementSweep();
+            sweepIterator = topics.iterator();
+        }
+        while (sweepIterator.hasNext()) {
+            BrokerTopic topic = sweepIterator.next();
+            if (owner.test(topic) && topic.getPushState(lane).getOverflowed().compareAndSet(true, false)) {
+                return topic;
+            }
+        }
+        sweepIterator = null;
+        return null;
+    }
+}
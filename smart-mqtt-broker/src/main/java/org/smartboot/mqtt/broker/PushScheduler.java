@@ -0,0 +1,439 @@
+package org.smartboot.mqtt.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 消息推送调度器。
+ * <p>
+ * 以Topic为单位轮转调度，每轮中每个订阅者最多推送一个配额的消息，调度时仅处理有待推送消息的订阅者：
+ * 已推送完全部消息的订阅者进入Topic的等待链栈，有新消息时整批取出；
+ * 配额耗尽仍有积压的订阅者进入Topic的待推送队列，下一轮继续处理；
+ * 飞行窗口已满或输出缓冲区饱和的订阅者不在任何队列中，收到响应或缓冲区排空后才重新加入调度。
+ * </p>
+ * <p>
+ * 每个Topic按名称哈希固定绑定一个推送线程，同一Topic及其订阅者只会由该线程推送，
+ * 各推送线程拥有独立的无锁运行队列，线程之间互不竞争。
+ * </p>
+ * <p>
+ * 推送写入不会立即flush，同一会话在一次调度遍历中跨多个Topic写入的数据合并为一次flush，
+ * 未flush数据超过阈值时提前flush。
+ * </p>
+ * <p>
+ * 订阅者数量达到阈值的Topic，遍历订阅者时按分片交由并行线程池推送，本轮所有分片完成后才结束该Topic的推送，
+ * 每个订阅者在一轮中仅由一个分片处理，保证单个订阅者的消息顺序。
+ * </p>
+ * <p>
+ * 订阅者较少的Topic产生新消息时，若订阅者的飞行窗口均有空余且没有积压，由接收消息的线程直接推送并flush，
+ * 省去推送线程的调度开销；Topic正在被推送线程处理或存在积压时仍交由推送线程。
+ * </p>
+ * <p>
+ * Qos0订阅者与Qos1/2订阅者划分为两个推送通道，各自拥有独立的推送线程、并行线程池及Topic调度状态，
+ * 大量Qos0消息不会占用Qos1/2消息的推送线程，Qos1/2通道的线程以较高优先级运行。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/15
+ */
+class PushScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PushScheduler.class);
+    /**
+     * 一次调度遍历最多处理的Topic轮次，运行队列持续非空时据此flush会话
+     */
+    private static final int PASS_TOPIC_TURNS = 64;
+    /**
+     * 并行推送时单个分片的最少订阅者数
+     */
+    private static final int MIN_FAN_OUT_CHUNK = 128;
+    /**
+     * Qos0消息推送通道
+     */
+    static final int LANE_QOS0 = 0;
+    /**
+     * Qos1/2消息推送通道
+     */
+    static final int LANE_ACK = 1;
+    static final int LANE_COUNT = 2;
+    private final BrokerContext brokerContext;
+    private final PushLane[] lanes = new PushLane[LANE_COUNT];
+    /**
+     * 每个订阅者单轮最多推送的消息数
+     */
+    private final int quantumCount;
+    /**
+     * 每个订阅者单轮最多推送的负载总量
+     */
+    private final int quantumBytes;
+    /**
+     * 会话未flush数据的阈值
+     */
+    private final int flushBytes;
+    /**
+     * 订阅者数量达到该值时并行推送，小于等于0表示不启用
+     */
+    private final int fanOutThreshold;
+    /**
+     * 订阅者数量不超过该值时由接收消息的线程直接推送，小于等于0表示不启用
+     */
+    private final int inlineThreshold;
+
+    PushScheduler(BrokerContext brokerContext) {
+        this.brokerContext = brokerContext;
+        BrokerConfigure brokerConfigure = brokerContext.getBrokerConfigure();
+        this.quantumCount = Math.max(1, brokerConfigure.getPushQuantumCount());
+        this.quantumBytes = Math.max(1, brokerConfigure.getPushQuantumBytes());
+        this.flushBytes = Math.max(1, brokerConfigure.getPushFlushBytes());
+        this.fanOutThreshold = brokerConfigure.getPushFanOutThreshold();
+        this.inlineThreshold = brokerConfigure.getPushInlineThreshold();
+        lanes[LANE_QOS0] = new PushLane(LANE_QOS0, "broker-push-qos0-", Math.max(1, brokerConfigure.getPushQos0ThreadNum()), Thread.NORM_PRIORITY);
+        lanes[LANE_ACK] = new PushLane(LANE_ACK, "broker-push-ack-", Math.max(1, brokerConfigure.getPushThreadNum()), Math.min(Thread.MAX_PRIORITY, Thread.NORM_PRIORITY + 2));
+    }
+
+    void start() {
+        for (PushLane lane : lanes) {
+            for (PushWorker worker : lane.workers) {
+                worker.thread.start();
+            }
+        }
+    }
+
+    /**
+     * Topic产生新消息，调度各通道中的订阅者
+     */
+    void notifyPush(BrokerTopic topic) {
+        TopicSubscriberRegistry subscribers = topic.getSubscribers();
+        for (PushLane lane : lanes) {
+            if (subscribers.snapshot(lane.lane).size() > 0 && !pushInline(lane, topic)) {
+                lane.notifyPush(topic);
+            }
+        }
+    }
+
+    /**
+     * 在当前线程中直接推送订阅者较少的Topic
+     *
+     * @return false:不满足直接推送的条件，需交由推送线程处理
+     */
+    private boolean pushInline(PushLane lane, BrokerTopic topic) {
+        TopicSubscriberRegistry.Snapshot subscribers = topic.getSubscribers().snapshot(lane.lane);
+        if (subscribers.size() > inlineThreshold) {
+            return false;
+        }
+        //飞行窗口已满的订阅者需等待响应
+        if (lane.lane == LANE_ACK) {
+            for (int i = 0; i < subscribers.size(); i++) {
+                if (subscribers.get(i).getMqttSession().getInflightQueue().available() == 0) {
+                    return false;
+                }
+            }
+        }
+        TopicPushState pushState = topic.getPushState(lane.lane);
+        //存在积压或推送线程正在处理
+        if (!pushState.getPendingSubscribers().isEmpty() || !pushState.markPushing()) {
+            return false;
+        }
+        try {
+            pushState.setPushedVersion(topic.getVersion().get());
+            TopicSubscriber subscriber = pushState.takeWaiting();
+            while (subscriber != null) {
+                TopicSubscriber next = subscriber.getWaitingNext();
+                subscriber.setWaitingNext(null);
+                subscriber.clearWaiting();
+                drain(subscriber, null);
+                subscriber = next;
+            }
+        } finally {
+            pushState.clearPushing();
+        }
+        brokerContext.getPushMetrics().incrementInlinePush();
+        //配额耗尽的订阅者或推送期间产生的新消息交由推送线程处理
+        if (!pushState.getPendingSubscribers().isEmpty() || pushState.getPushedVersion() != topic.getVersion().get()) {
+            lane.notifyPush(topic);
+        }
+        return true;
+    }
+
+    /**
+     * 仅调度指定的订阅者，用于配额耗尽、飞行窗口恢复或订阅就绪的场景
+     */
+    void schedule(TopicSubscriber subscriber) {
+        if (subscriber.markPending()) {
+            PushLane lane = lanes[subscriber.getLane()];
+            subscriber.getTopic().getPushState(lane.lane).getPendingSubscribers().offer(subscriber);
+            lane.notifyPush(subscriber.getTopic());
+        }
+    }
+
+    void shutdown() {
+        for (PushLane lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * 执行一轮推送
+     */
+    private void push(PushLane lane, BrokerTopic topic, List<TopicSubscriber> batch, List<MqttSession> dirtySessions) {
+        TopicPushState pushState = topic.getPushState(lane.lane);
+        Queue<TopicSubscriber> pendingSubscribers = pushState.getPendingSubscribers();
+        //本轮开始前已在队列中的订阅者，本轮新加入的留待下一轮
+        int pendingCount = pendingSubscribers.size();
+        int version = topic.getVersion().get();
+        if (pushState.getPushedVersion() != version) {
+            pushState.setPushedVersion(version);
+            //推送过程中重新进入等待的订阅者，由版本号变化触发的下一轮处理
+            TopicSubscriber subscriber = pushState.takeWaiting();
+            while (subscriber != null) {
+                TopicSubscriber next = subscriber.getWaitingNext();
+                subscriber.setWaitingNext(null);
+                subscriber.clearWaiting();
+                batch.add(subscriber);
+                subscriber = next;
+            }
+            if (lane.fanOutPool != null && batch.size() >= fanOutThreshold) {
+                fanOut(lane.fanOutPool, batch, dirtySessions);
+            } else {
+                for (TopicSubscriber waitingSubscriber : batch) {
+                    drain(waitingSubscriber, dirtySessions);
+                }
+            }
+            batch.clear();
+        }
+        while (pendingCount-- > 0) {
+            TopicSubscriber subscriber = pendingSubscribers.poll();
+            if (subscriber == null) {
+                break;
+            }
+            subscriber.clearPending();
+            drain(subscriber, dirtySessions);
+        }
+    }
+
+    /**
+     * 分片并行推送，等待所有分片完成后返回
+     */
+    private void fanOut(ForkJoinPool fanOutPool, List<TopicSubscriber> subscribers, List<MqttSession> dirtySessions) {
+        int chunkSize = Math.max(MIN_FAN_OUT_CHUNK, subscribers.size() / (fanOutPool.getParallelism() * 4) + 1);
+        Queue<MqttSession> fanOutDirtySessions = new ConcurrentLinkedQueue<>();
+        try {
+            fanOutPool.invoke(new FanOutTask(subscribers, 0, subscribers.size(), chunkSize, fanOutDirtySessions));
+        } catch (RejectedExecutionException e) {
+            //调度器已停止
+            LOGGER.warn("fan out rejected", e);
+        }
+        dirtySessions.addAll(fanOutDirtySessions);
+    }
+
+    /**
+     * @param dirtySessions 记录待flush的会话，为null时立即flush
+     */
+    private void drain(TopicSubscriber subscriber, Collection<MqttSession> dirtySessions) {
+        MqttSession session = subscriber.getMqttSession();
+        //会话已断开或已取消订阅
+        if (session.isDisconnect() || subscriber.getTopic().getSubscribers().get(session) != subscriber) {
+            return;
+        }
+        try {
+            if (subscriber.drain(brokerContext, this, quantumCount, quantumBytes, flushBytes)) {
+                schedule(subscriber);
+            }
+        } catch (Exception e) {
+            LOGGER.error("push message to client:{} exception", session.getClientId(), e);
+            //Topic产生新消息时重试
+            subscriber.getTopic().getPushState(subscriber.getLane()).offerWaiting(subscriber);
+        } finally {
+            if (dirtySessions == null) {
+                if (session.getUnflushedBytes() > 0) {
+                    flush(session);
+                }
+            } else if (session.getUnflushedBytes() > 0 && session.markFlushScheduled()) {
+                dirtySessions.add(session);
+            }
+        }
+    }
+
+    /**
+     * 一次调度遍历结束，统一flush本次遍历中写入过的会话
+     */
+    private void flush(List<MqttSession> dirtySessions) {
+        for (MqttSession session : dirtySessions) {
+            flush(session);
+        }
+        dirtySessions.clear();
+    }
+
+    private void flush(MqttSession session) {
+        try {
+            session.flushPushed();
+        } catch (Exception e) {
+            LOGGER.error("flush client:{} exception", session.getClientId(), e);
+        }
+    }
+
+    /**
+     * 并行推送的分片任务，超过分片大小时对半拆分
+     */
+    private class FanOutTask extends RecursiveAction {
+        private final List<TopicSubscriber> subscribers;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Queue<MqttSession> dirtySessions;
+
+        FanOutTask(List<TopicSubscriber> subscribers, int from, int to, int chunkSize, Queue<MqttSession> dirtySessions) {
+            this.subscribers = subscribers;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.dirtySessions = dirtySessions;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    drain(subscribers.get(i), dirtySessions);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FanOutTask(subscribers, from, middle, chunkSize, dirtySessions), new FanOutTask(subscribers, middle, to, chunkSize, dirtySessions));
+        }
+    }
+
+    /**
+     * 推送通道，Topic在每个通道中按名称哈希绑定一个推送线程
+     */
+    private class PushLane {
+        private final int lane;
+        private final PushWorker[] workers;
+        private final ForkJoinPool fanOutPool;
+
+        PushLane(int lane, String namePrefix, int threadNum, int priority) {
+            this.lane = lane;
+            BrokerConfigure brokerConfigure = brokerContext.getBrokerConfigure();
+            this.fanOutPool = fanOutThreshold > 0 ? new ForkJoinPool(Math.max(1, brokerConfigure.getPushFanOutThreadNum())) : null;
+            workers = new PushWorker[threadNum];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new PushWorker(this, namePrefix + i, brokerConfigure.getTopicLimit(), brokerConfigure.getPushOverflowStrategy());
+                workers[i].thread.setPriority(priority);
+            }
+        }
+
+        void notifyPush(BrokerTopic topic) {
+            //已加入推送队列
+            if (!topic.getPushState(lane).markPushing()) {
+                return;
+            }
+            worker(topic).offer(topic);
+        }
+
+        /**
+         * Topic所绑定的推送线程
+         */
+        PushWorker worker(BrokerTopic topic) {
+            int hash = topic.getTopic().hashCode();
+            return workers[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % workers.length];
+        }
+
+        void shutdown() {
+            for (PushWorker worker : workers) {
+                worker.shutdown();
+            }
+            if (fanOutPool != null) {
+                fanOutPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 推送线程，仅处理绑定至自身的Topic
+     */
+    private class PushWorker implements Runnable {
+        private final PushLane lane;
+        private final PushRunQueue runQueue;
+        private final Thread thread;
+        /**
+         * 运行队列为空，线程已进入或即将进入休眠
+         */
+        private final AtomicBoolean idle = new AtomicBoolean();
+        /**
+         * 本次调度遍历中写入过数据的会话
+         */
+        private final List<MqttSession> dirtySessions = new ArrayList<>();
+        /**
+         * 本轮取出的等待中订阅者
+         */
+        private final List<TopicSubscriber> batch = new ArrayList<>();
+        /**
+         * 运行队列处于溢出状态，用于避免重复输出告警
+         */
+        private volatile boolean overflowing;
+        private volatile boolean running = true;
+
+        PushWorker(PushLane lane, String name, int capacity, String overflowStrategy) {
+            this.lane = lane;
+            thread = new Thread(this, name);
+            runQueue = new PushRunQueue(lane.lane, capacity, overflowStrategy, brokerContext.getPushMetrics(), brokerContext.getTopics(), topic -> lane.worker(topic) == this);
+        }
+
+        void offer(BrokerTopic topic) {
+            if (runQueue.offer(topic) && !overflowing) {
+                overflowing = true;
+                LOGGER.warn("push queue of {} overflow, {}", thread.getName(), brokerContext.getPushMetrics());
+            }
+            if (idle.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            int turns = 0;
+            while (running) {
+                BrokerTopic brokerTopic = runQueue.poll();
+                if (brokerTopic == null) {
+                    overflowing = false;
+                    idle.set(true);
+                    //标记休眠前已有Topic入队
+                    if (runQueue.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    idle.set(false);
+                    continue;
+                }
+                try {
+                    push(lane, brokerTopic, batch, dirtySessions);
+                } catch (Exception e) {
+                    LOGGER.error("brokerTopic:{} push message exception", brokerTopic.getTopic(), e);
+                }
+                TopicPushState pushState = brokerTopic.getPushState(lane.lane);
+                pushState.clearPushing();
+                //本轮结束后仍有积压，排至队尾等待下一轮
+                if (!pushState.getPendingSubscribers().isEmpty() || pushState.getPushedVersion() != brokerTopic.getVersion().get()) {
+                    lane.notifyPush(brokerTopic);
+                }
+                if (++turns >= PASS_TOPIC_TURNS || runQueue.isEmpty()) {
+                    turns = 0;
+                    flush(dirtySessions);
+                }
+            }
+        }
+    }
+}
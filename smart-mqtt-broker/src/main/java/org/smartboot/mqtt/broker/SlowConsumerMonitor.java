@@ -0,0 +1,70 @@
+package org.smartboot.mqtt.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期检查暂停推送的订阅者。
+ * <p>
+ * 飞行窗口已满或输出缓冲区饱和的订阅者不会进入推送流程，也就不会在推送时执行慢速订阅者策略，
+ * 而这正是disconnect策略所针对的订阅者。仅配置了disconnect策略时启用。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+class SlowConsumerMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowConsumerMonitor.class);
+    /**
+     * 最长扫描间隔
+     */
+    private static final long MAX_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private final BrokerContext brokerContext;
+    private final ConcurrentMap<String, BrokerTopic> topicMap;
+
+    SlowConsumerMonitor(BrokerContext brokerContext, ConcurrentMap<String, BrokerTopic> topicMap) {
+        this.brokerContext = brokerContext;
+        this.topicMap = topicMap;
+    }
+
+    void start() {
+        StoreConfigure storeConfigure = brokerContext.getBrokerConfigure().getStore();
+        long maxLagTime = Long.MAX_VALUE;
+        if (SlowConsumerPolicy.DISCONNECT.equals(storeConfigure.getSlowConsumerPolicy())) {
+            maxLagTime = storeConfigure.getMaxLagTime();
+        }
+        for (StoreConfigure.TopicConfigure topicConfigure : storeConfigure.getTopics()) {
+            if (SlowConsumerPolicy.DISCONNECT.equals(topicConfigure.getSlowConsumerPolicy())) {
+                maxLagTime = Math.min(maxLagTime, topicConfigure.getMaxLagTime() > 0 ? topicConfigure.getMaxLagTime() : storeConfigure.getMaxLagTime());
+            }
+        }
+        if (maxLagTime == Long.MAX_VALUE) {
+            return;
+        }
+        long interval = Math.max(1, Math.min(maxLagTime / 2, MAX_CHECK_INTERVAL));
+        brokerContext.getKeepAliveThreadPool().scheduleWithFixedDelay(() -> {
+            try {
+                checkStalledSubscribers();
+            } catch (Exception e) {
+                LOGGER.error("check slow consumer exception", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void checkStalledSubscribers() {
+        for (BrokerTopic topic : topicMap.values()) {
+            if (!SlowConsumerPolicy.DISCONNECT.equals(topic.getSlowConsumerPolicy().getType())) {
+                continue;
+            }
+            for (int lane = 0; lane < PushScheduler.LANE_COUNT; lane++) {
+                TopicSubscriberRegistry.Snapshot subscribers = topic.getSubscribers().snapshot(lane);
+                for (int i = 0; i < subscribers.size(); i++) {
+                    subscribers.get(i).checkStalledLag(brokerContext);
+                }
+            }
+        }
+    }
+}
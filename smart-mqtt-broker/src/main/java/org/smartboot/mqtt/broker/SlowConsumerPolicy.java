@@ -0,0 +1,90 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+import org.smartboot.mqtt.common.util.ValidateUtils;
+
+/**
+ * 慢速订阅者的处理策略，订阅者的消费点位落后于存储中最早的消息时生效
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public final class SlowConsumerPolicy {
+    /**
+     * 跳至最早可用的消息继续推送，并统计丢弃的消息数
+     */
+    public static final String DROP = "drop";
+    /**
+     * 同drop，且待推送的消息滞后超过maxLagTime时断开连接
+     */
+    public static final String DISCONNECT = "disconnect";
+    /**
+     * 移出内存的消息转存至文件，订阅者继续从文件读取。仅tiered存储有效，file存储的消息本就存于文件
+     */
+    public static final String SPILL = "spill";
+
+    public static final SlowConsumerPolicy DEFAULT = new SlowConsumerPolicy(DROP, 0);
+
+    private final String type;
+    /**
+     * 允许的最大滞后时长，单位：毫秒
+     */
+    private final long maxLagTime;
+
+    public SlowConsumerPolicy(String type, long maxLagTime) {
+        ValidateUtils.isTrue(DROP.equals(type) || DISCONNECT.equals(type) || SPILL.equals(type), "invalid slowConsumerPolicy: " + type);
+        ValidateUtils.isTrue(!DISCONNECT.equals(type) || maxLagTime > 0, "maxLagTime must >0 when slowConsumerPolicy is disconnect");
+        this.type = type;
+        this.maxLagTime = maxLagTime;
+    }
+
+    /**
+     * 按存储配置获取Topic适用的策略，未匹配个性化配置时使用全局配置
+     */
+    public static SlowConsumerPolicy resolve(StoreConfigure storeConfigure, String topic) {
+        String type = storeConfigure.getSlowConsumerPolicy();
+        //分层存储默认转存所有Topic
+        if (type == null) {
+            type = StoreConfigure.TYPE_TIERED.equals(storeConfigure.getType()) ? SPILL : DROP;
+        }
+        long maxLagTime = storeConfigure.getMaxLagTime();
+        TopicToken topicToken = null;
+        for (StoreConfigure.TopicConfigure topicConfigure : storeConfigure.getTopics()) {
+            if (topicConfigure.getSlowConsumerPolicy() == null) {
+                continue;
+            }
+            if (topicToken == null) {
+                topicToken = TopicToken.lookup(topic);
+            }
+            if (TopicTokenUtil.match(topicToken, new TopicToken(topicConfigure.getPattern()))) {
+                type = topicConfigure.getSlowConsumerPolicy();
+                if (topicConfigure.getMaxLagTime() > 0) {
+                    maxLagTime = topicConfigure.getMaxLagTime();
+                }
+                break;
+            }
+        }
+        return new SlowConsumerPolicy(type, maxLagTime);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getMaxLagTime() {
+        return maxLagTime;
+    }
+
+    public boolean isSpill() {
+        return SPILL.equals(type);
+    }
+
+    @Override
+    public String toString() {
+        return "SlowConsumerPolicy{" +
+                "type='" + type + '\'' +
+                ", maxLagTime=" + maxLagTime +
+                '}';
+    }
+}
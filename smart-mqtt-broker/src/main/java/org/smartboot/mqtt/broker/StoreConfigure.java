@@ -0,0 +1,348 @@
+package org.smartboot.mqtt.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 消息存储配置，对应配置文件中的 broker.store 节点
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/4
+ */
+public class StoreConfigure {
+    /**
+     * 纯内存存储，重启后消息丢失
+     */
+    public static final String TYPE_MEMORY = "memory";
+    /**
+     * 基于内存映射文件的顺序写存储
+     */
+    public static final String TYPE_FILE = "file";
+    /**
+     * 最近的消息存于内存，移出内存的消息转存至文件
+     */
+    public static final String TYPE_TIERED = "tiered";
+
+    /**
+     * 存储类型
+     */
+    private String type = TYPE_MEMORY;
+
+    /**
+     * 文件存储目录
+     */
+    private String dir = "store";
+
+    /**
+     * 单个segment文件大小，单位：字节
+     */
+    private int segmentSize = 4 * 1024 * 1024;
+
+    /**
+     * 稀疏索引间隔，每写入indexInterval条消息记录一个索引项
+     */
+    private int indexInterval = 32;
+
+    /**
+     * 每个Topic最多保留的segment文件数，超出后删除最早的segment
+     */
+    private int maxSegments = 8;
+
+    /**
+     * 文件存储是否在消息刷盘后才响应QoS1的PUBACK、QoS2的PUBREC
+     */
+    private boolean durable;
+
+    /**
+     * 同步刷盘的组提交窗口，单位：毫秒。窗口内到达的消息合并为一次刷盘
+     */
+    private long groupCommitInterval = 2;
+
+    /**
+     * 内存存储中每个Topic默认可缓存的消息数
+     */
+    private int capacity = 64;
+
+    /**
+     * 内存存储可占用的堆内存上限，单位：字节。小于等于0表示不限制。
+     * 超出上限后，优先淘汰最久未写入的Topic
+     */
+    private long memoryBudget;
+
+    /**
+     * 内存存储是否将消息负载存放于堆外内存
+     */
+    private boolean offHeap;
+
+    /**
+     * 堆外内存块大小，单位：字节。大于该值的负载仍存放于堆内
+     */
+    private int slabSize = 1024 * 1024;
+
+    /**
+     * 堆外内存上限，单位：字节。超出后新消息的负载存放于堆内
+     */
+    private long maxOffHeapSize = 256 * 1024 * 1024;
+
+    /**
+     * 会话状态存储类型: memory / file
+     */
+    private String sessionType = TYPE_MEMORY;
+
+    /**
+     * 会话状态文件存储目录
+     */
+    private String sessionDir = "session";
+
+    /**
+     * 会话状态批量落盘间隔，单位：毫秒
+     */
+    private long sessionFlushInterval = 100;
+
+    /**
+     * 按Topic匹配的个性化配置，按配置顺序匹配首个符合的规则
+     */
+    private List<TopicConfigure> topics = new ArrayList<>();
+
+    /**
+     * 慢速订阅者的处理策略: drop / disconnect / spill，未配置时tiered存储为spill，其余为drop
+     */
+    private String slowConsumerPolicy;
+
+    /**
+     * disconnect策略下允许的最大滞后时长，单位：毫秒
+     */
+    private long maxLagTime = 30000;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getIndexInterval() {
+        return indexInterval;
+    }
+
+    public void setIndexInterval(int indexInterval) {
+        this.indexInterval = indexInterval;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public long getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    public void setGroupCommitInterval(long groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    public long getMaxOffHeapSize() {
+        return maxOffHeapSize;
+    }
+
+    public void setMaxOffHeapSize(long maxOffHeapSize) {
+        this.maxOffHeapSize = maxOffHeapSize;
+    }
+
+    public String getSessionType() {
+        return sessionType;
+    }
+
+    public void setSessionType(String sessionType) {
+        this.sessionType = sessionType;
+    }
+
+    public String getSessionDir() {
+        return sessionDir;
+    }
+
+    public void setSessionDir(String sessionDir) {
+        this.sessionDir = sessionDir;
+    }
+
+    public long getSessionFlushInterval() {
+        return sessionFlushInterval;
+    }
+
+    public void setSessionFlushInterval(long sessionFlushInterval) {
+        this.sessionFlushInterval = sessionFlushInterval;
+    }
+
+    public List<TopicConfigure> getTopics() {
+        return topics;
+    }
+
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public long getMaxLagTime() {
+        return maxLagTime;
+    }
+
+    public void setMaxLagTime(long maxLagTime) {
+        this.maxLagTime = maxLagTime;
+    }
+
+    public void setTopics(List<TopicConfigure> topics) {
+        this.topics = topics;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreConfigure{" +
+                "type='" + type + '\'' +
+                ", dir='" + dir + '\'' +
+                ", segmentSize=" + segmentSize +
+                ", indexInterval=" + indexInterval +
+                ", maxSegments=" + maxSegments +
+                ", durable=" + durable +
+                ", groupCommitInterval=" + groupCommitInterval +
+                ", capacity=" + capacity +
+                ", memoryBudget=" + memoryBudget +
+                ", offHeap=" + offHeap +
+                ", slabSize=" + slabSize +
+                ", maxOffHeapSize=" + maxOffHeapSize +
+                ", sessionType='" + sessionType + '\'' +
+                ", sessionDir='" + sessionDir + '\'' +
+                ", sessionFlushInterval=" + sessionFlushInterval +
+                ", topics=" + topics +
+                ", slowConsumerPolicy='" + slowConsumerPolicy + '\'' +
+                ", maxLagTime=" + maxLagTime +
+                '}';
+    }
+
+    /**
+     * 指定Topic的存储配置
+     */
+    public static class TopicConfigure {
+        /**
+         * Topic匹配规则，支持通配符
+         */
+        private String pattern;
+        /**
+         * 可缓存的消息数，0表示使用全局配置
+         */
+        private int capacity;
+        /**
+         * 慢速订阅者的处理策略，为null时使用全局配置
+         */
+        private String slowConsumerPolicy;
+        /**
+         * disconnect策略下允许的最大滞后时长，0表示使用全局配置
+         */
+        private long maxLagTime;
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public void setPattern(String pattern) {
+            this.pattern = pattern;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public String getSlowConsumerPolicy() {
+            return slowConsumerPolicy;
+        }
+
+        public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+            this.slowConsumerPolicy = slowConsumerPolicy;
+        }
+
+        public long getMaxLagTime() {
+            return maxLagTime;
+        }
+
+        public void setMaxLagTime(long maxLagTime) {
+            this.maxLagTime = maxLagTime;
+        }
+
+        @Override
+        public String toString() {
+            return "TopicConfigure{" +
+                    "pattern='" + pattern + '\'' +
+                    ", capacity=" + capacity +
+                    ", slowConsumerPolicy='" + slowConsumerPolicy + '\'' +
+                    ", maxLagTime=" + maxLagTime +
+                    '}';
+        }
+    }
+}
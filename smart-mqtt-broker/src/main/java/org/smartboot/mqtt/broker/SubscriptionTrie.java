@@ -0,0 +1,120 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通配符订阅的索引树。
+ * <p>
+ * 按Topic层级逐级建立节点，“+”与“#”作为普通的子节点存放，节点上记录以该路径为主题过滤器的订阅会话。
+ * 新建Topic时沿Topic层级查找，每一层只需访问同名节点、“+”节点及“#”节点，
+ * 匹配耗时与Topic层级数及通配符分支数相关，与通配符订阅的总数无关。
+ * </p>
+ * <p>
+ * 订阅与取消订阅加锁执行，取消订阅时逐级移除空节点；匹配过程无锁。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public final class SubscriptionTrie {
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+    private final Node root = new Node(null, null);
+
+    /**
+     * 登记通配符订阅，会话已订阅同一主题过滤器时更新QoS
+     */
+    public synchronized void subscribe(TopicToken topicFilterToken, MqttSession session, MqttQoS mqttQoS) {
+        Node node = root;
+        for (int i = 0; i < topicFilterToken.getLevelCount(); i++) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(topicFilterToken.getNode(i), key -> new Node(parent, key));
+        }
+        node.topicFilterToken = topicFilterToken;
+        node.subscribers.put(session, mqttQoS);
+    }
+
+    /**
+     * 移除通配符订阅
+     */
+    public synchronized void unsubscribe(TopicToken topicFilterToken, MqttSession session) {
+        Node node = root;
+        for (int i = 0; i < topicFilterToken.getLevelCount() && node != null; i++) {
+            node = node.children.get(topicFilterToken.getNode(i));
+        }
+        if (node == null || node.subscribers.remove(session) == null) {
+            return;
+        }
+        //移除不再使用的节点
+        while (node != root && node.subscribers.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.level, node);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * 查找与Topic匹配的全部订阅
+     */
+    public void match(TopicToken topicToken, MatchConsumer consumer) {
+        match(root, topicToken, 0, consumer);
+    }
+
+    private void match(Node node, TopicToken topicToken, int level, MatchConsumer consumer) {
+        //#匹配当前层级及其所有子层级
+        Node multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+        if (multiLevel != null) {
+            multiLevel.accept(consumer);
+        }
+        if (level == topicToken.getLevelCount()) {
+            node.accept(consumer);
+            return;
+        }
+        Node child = node.children.get(topicToken.getNode(level));
+        if (child != null) {
+            match(child, topicToken, level + 1, consumer);
+        }
+        Node singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+        if (singleLevel != null) {
+            match(singleLevel, topicToken, level + 1, consumer);
+        }
+    }
+
+    /**
+     * 是否不存在任何订阅
+     */
+    public boolean isEmpty() {
+        return root.children.isEmpty();
+    }
+
+    public interface MatchConsumer {
+        void accept(MqttSession session, TopicToken topicFilterToken, MqttQoS mqttQoS);
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final String level;
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        /**
+         * 以当前节点为末端的订阅
+         */
+        private final Map<MqttSession, MqttQoS> subscribers = new ConcurrentHashMap<>();
+        private volatile TopicToken topicFilterToken;
+
+        Node(Node parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+
+        void accept(MatchConsumer consumer) {
+            TopicToken token = topicFilterToken;
+            if (token == null) {
+                return;
+            }
+            subscribers.forEach((session, mqttQoS) -> consumer.accept(session, token, mqttQoS));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.smartboot.mqtt.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.broker.eventbus.ServerEventType;
+import org.smartboot.mqtt.broker.provider.Providers;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Topic生命周期管理，定期回收闲置的Topic。
+ * 满足以下全部条件的Topic将被回收：
+ * <ol>
+ *     <li>闲置时长超过topicIdleTimeout</li>
+ *     <li>没有订阅者</li>
+ *     <li>没有保留消息</li>
+ *     <li>不存在订阅该Topic的离线会话</li>
+ * </ol>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/12
+ */
+class TopicLifecycleManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopicLifecycleManager.class);
+    /**
+     * 最长扫描间隔
+     */
+    private static final long MAX_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private final BrokerContext brokerContext;
+    private final ConcurrentMap<String, BrokerTopic> topicMap;
+    private final long idleTimeout;
+
+    TopicLifecycleManager(BrokerContext brokerContext, ConcurrentMap<String, BrokerTopic> topicMap) {
+        this.brokerContext = brokerContext;
+        this.topicMap = topicMap;
+        this.idleTimeout = brokerContext.getBrokerConfigure().getTopicIdleTimeout();
+    }
+
+    void start() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long interval = Math.min(idleTimeout, MAX_CHECK_INTERVAL);
+        brokerContext.getKeepAliveThreadPool().scheduleWithFixedDelay(() -> {
+            try {
+                evictIdleTopics();
+            } catch (Exception e) {
+                LOGGER.error("evict idle topic exception", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void evictIdleTopics() {
+        long expireTime = System.currentTimeMillis() - idleTimeout;
+        List<BrokerTopic> candidates = new ArrayList<>();
+        for (BrokerTopic topic : topicMap.values()) {
+            if (topic.getLatestActiveTime() < expireTime && topic.getSubscribers().isEmpty()) {
+                candidates.add(topic);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        Providers providers = brokerContext.getProviders();
+        //离线会话的订阅
+        Set<String> topicFilters = new HashSet<>();
+        providers.getSessionStateProvider().forEachTopicFilter(topicFilters::add);
+        List<TopicToken> topicTokens = new ArrayList<>(topicFilters.size());
+        topicFilters.forEach(topicFilter -> topicTokens.add(new TopicToken(topicFilter)));
+
+        int count = 0;
+        for (BrokerTopic topic : candidates) {
+            if (providers.getRetainMessageProvider().get(topic.getTopic()) != null) {
+                continue;
+            }
+            if (topicTokens.stream().anyMatch(topicToken -> TopicTokenUtil.match(topic.getTopicToken(), topicToken))) {
+                continue;
+            }
+            //再次确认状态，避免与新建订阅产生竞争。
+            //消息须在移除Topic的同时删除，否则同名Topic重建后的消息及订阅点位会被一并清除
+            BrokerTopic removed = topicMap.computeIfPresent(topic.getTopic(), (name, t) -> {
+                if (t != topic || t.getLatestActiveTime() >= expireTime || !t.getSubscribers().isEmpty()) {
+                    return t;
+                }
+                t.setDestroyed(true);
+                providers.getPersistenceProvider().delete(name);
+                return null;
+            });
+            if (removed != null || !topic.isDestroyed()) {
+                continue;
+            }
+            brokerContext.getEventBus().publish(ServerEventType.TOPIC_REMOVE, topic);
+            count++;
+        }
+        if (count > 0) {
+            LOGGER.info("evict {} idle topics, remaining:{}", count, topicMap.size());
+        }
+    }
+}
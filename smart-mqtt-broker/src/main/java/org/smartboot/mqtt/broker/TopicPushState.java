@@ -0,0 +1,101 @@
+package org.smartboot.mqtt.broker;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Topic在单个推送通道中的调度状态
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+class TopicPushState {
+    /**
+     * 是否已加入推送线程的运行队列
+     */
+    private final AtomicBoolean pushing = new AtomicBoolean();
+    /**
+     * 推送运行队列溢出时的标记，用于scan策略
+     */
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    /**
+     * 推送运行队列溢出时链栈中的下一个Topic，用于coalesce策略
+     */
+    private BrokerTopic overflowNext;
+    /**
+     * 配额耗尽后仍有积压的订阅者
+     */
+    private final Queue<TopicSubscriber> pendingSubscribers = new ConcurrentLinkedQueue<>();
+    /**
+     * 已推送完全部消息、等待新消息的订阅者组成的链栈，Topic产生新消息时整批取出
+     */
+    private final AtomicReference<TopicSubscriber> waitingSubscribers = new AtomicReference<>();
+    /**
+     * 最近一轮推送时取出等待中订阅者所依据的版本号
+     */
+    private int pushedVersion = -1;
+
+    /**
+     * @return false:已加入推送线程的运行队列
+     */
+    boolean markPushing() {
+        return pushing.compareAndSet(false, true);
+    }
+
+    void clearPushing() {
+        pushing.set(false);
+    }
+
+    boolean isPushing() {
+        return pushing.get();
+    }
+
+    AtomicBoolean getOverflowed() {
+        return overflowed;
+    }
+
+    BrokerTopic getOverflowNext() {
+        return overflowNext;
+    }
+
+    void setOverflowNext(BrokerTopic overflowNext) {
+        this.overflowNext = overflowNext;
+    }
+
+    Queue<TopicSubscriber> getPendingSubscribers() {
+        return pendingSubscribers;
+    }
+
+    /**
+     * 订阅者已无待推送的消息，加入等待链栈
+     */
+    void offerWaiting(TopicSubscriber subscriber) {
+        if (!subscriber.markWaiting()) {
+            return;
+        }
+        TopicSubscriber top;
+        do {
+            top = waitingSubscribers.get();
+            subscriber.setWaitingNext(top);
+        } while (!waitingSubscribers.compareAndSet(top, subscriber));
+    }
+
+    /**
+     * 取出全部等待中的订阅者
+     *
+     * @return 链栈的栈顶，通过TopicSubscriber#getWaitingNext遍历
+     */
+    TopicSubscriber takeWaiting() {
+        return waitingSubscribers.getAndSet(null);
+    }
+
+    int getPushedVersion() {
+        return pushedVersion;
+    }
+
+    void setPushedVersion(int pushedVersion) {
+        this.pushedVersion = pushedVersion;
+    }
+}
@@ -3,6 +3,7 @@ package org.smartboot.mqtt.broker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.broker.provider.RetainMessageProvider;
 import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
 import org.smartboot.mqtt.common.InflightQueue;
 import org.smartboot.mqtt.common.MqttMessageBuilders;
@@ -13,6 +14,9 @@ import org.smartboot.mqtt.common.eventbus.EventType;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Topic订阅者
  *
@@ -30,6 +34,10 @@ public class TopicSubscriber {
      * 服务端向客户端发送应用消息所允许的最大 QoS 等级
      */
     private final MqttQoS mqttQoS;
+    /**
+     * 所属的推送通道
+     */
+    private final int lane;
 
     /**
      * 期望消费的点位
@@ -41,6 +49,12 @@ public class TopicSubscriber {
      */
     private long retainConsumerOffset;
 
+    /**
+     * 通配符订阅建立时批量查得的保留消息，首次推送retain时使用，避免逐个Topic查询
+     */
+    private PersistenceMessage retainMessage;
+    private boolean retainMessageResolved;
+
     /**
      * 最近一次订阅时间
      */
@@ -50,56 +64,217 @@ public class TopicSubscriber {
     private int pushVersion = -1;
 
     private boolean ready = false;
+    /**
+     * 是否已在Topic的待推送队列中
+     */
+    private final AtomicBoolean pending = new AtomicBoolean();
+    /**
+     * 是否因飞行窗口已满而暂停推送
+     */
+    private final AtomicBoolean blocked = new AtomicBoolean();
+    /**
+     * 是否因会话输出缓冲区饱和而暂停推送
+     */
+    private volatile boolean parked;
+    /**
+     * 是否在Topic的等待链栈中
+     */
+    private final AtomicBoolean waiting = new AtomicBoolean();
+    /**
+     * 等待链栈中的下一个订阅者
+     */
+    private TopicSubscriber waitingNext;
+    /**
+     * 在Topic订阅者数组中的下标，由TopicSubscriberRegistry在加锁状态下维护
+     */
+    private int registryIndex = -1;
+    /**
+     * 因消息已被存储淘汰而跳过的消息数。同一订阅者同一时刻仅由一个推送线程处理
+     */
+    private volatile long droppedCount;
+    /**
+     * 尚未推送的消息数，每轮推送后更新
+     */
+    private volatile long lag;
+    /**
+     * 最早一条尚未推送的消息的存储时间，0表示没有积压
+     */
+    private volatile long lagSince;
 
     public TopicSubscriber(BrokerTopic topic, MqttSession session, MqttQoS mqttQoS, long nextConsumerOffset, long retainConsumerOffset) {
         this.topic = topic;
         this.mqttSession = session;
         this.mqttQoS = mqttQoS;
+        this.lane = mqttQoS == MqttQoS.AT_MOST_ONCE ? PushScheduler.LANE_QOS0 : PushScheduler.LANE_ACK;
         this.nextConsumerOffset = nextConsumerOffset;
         this.retainConsumerOffset = retainConsumerOffset;
     }
 
-    public void batchPublish(BrokerContext brokerContext) {
-        nextConsumerOffset = publish0(brokerContext, 0, nextConsumerOffset);
+    /**
+     * 在配额内推送积压的消息
+     *
+     * @param quantumCount 本轮最多推送的消息数
+     * @param quantumBytes 本轮最多推送的负载总量
+     * @param flushBytes   会话累计未flush的数据超过该值时立即flush，否则由推送线程在本轮结束时统一flush
+     * @return true:配额耗尽时仍有待推送的消息
+     */
+    boolean drain(BrokerContext brokerContext, PushScheduler scheduler, int quantumCount, int quantumBytes, int flushBytes) {
+        PersistenceProvider persistenceProvider = brokerContext.getProviders().getPersistenceProvider();
+        InflightQueue inflightQueue = mqttSession.getInflightQueue();
+        int count = 0;
+        int bytes = 0;
+        while (count < quantumCount && bytes < quantumBytes) {
+            int version = topic.getVersion().get();
+            int maxCount = mqttQoS == MqttQoS.AT_MOST_ONCE ? quantumCount - count : Math.min(quantumCount - count, inflightQueue.available());
+            // 飞行队列已满，收到响应后再恢复推送
+            if (maxCount == 0) {
+                blocked.set(true);
+                //标记前已收到响应
+                if (inflightQueue.available() > 0 && blocked.compareAndSet(true, false)) {
+                    continue;
+                }
+                return false;
+            }
+            List<PersistenceMessage> messages = persistenceProvider.get(topic.getTopic(), nextConsumerOffset, maxCount, quantumBytes - bytes);
+            if (messages.isEmpty()) {
+                pushVersion = version;
+                lag = 0;
+                lagSince = 0;
+                //Topic产生新消息时再恢复推送
+                topic.getPushState(lane).offerWaiting(this);
+                return false;
+            }
+            if (!checkLag(brokerContext, messages.get(0))) {
+                return false;
+            }
+            for (PersistenceMessage persistenceMessage : messages) {
+                //输出缓冲区已饱和，待传输层排空后恢复推送
+                if (mqttSession.parkIfSaturated(this, scheduler)) {
+                    return false;
+                }
+                //消息已被存储淘汰，下一批次从最早的消息开始读取
+                if (!persistenceMessage.retain()) {
+                    break;
+                }
+                try {
+                    if (!publish(brokerContext, scheduler, persistenceMessage)) {
+                        break;
+                    }
+                } finally {
+                    persistenceMessage.release();
+                }
+                nextConsumerOffset = persistenceMessage.getOffset() + 1;
+                count++;
+                bytes += persistenceMessage.getPayloadLength();
+                //估算报文长度：负载、主题及固定头部
+                if (mqttSession.addUnflushedBytes(persistenceMessage.getPayloadLength() + persistenceMessage.getTopic().length() + 4) >= flushBytes) {
+                    mqttSession.flushPushed();
+                }
+            }
+        }
+        lag = Math.max(0, persistenceProvider.getLatestOffset(topic.getTopic()) - nextConsumerOffset + 1);
+        return true;
+    }
+
+    /**
+     * 统计滞后情况并执行慢速订阅者策略
+     *
+     * @param oldest 本批次读取到的最早的消息
+     * @return false:连接已断开
+     */
+    private boolean checkLag(BrokerContext brokerContext, PersistenceMessage oldest) {
+        //期望消费的消息已被淘汰，跳至最早可用的消息
+        if (oldest.getOffset() > nextConsumerOffset) {
+            long dropped = oldest.getOffset() - nextConsumerOffset;
+            droppedCount += dropped;
+            brokerContext.getPushMetrics().addDropped(dropped);
+            LOGGER.warn("client:{} is too slow to consume topic:{}, drop {} messages", mqttSession.getClientId(), topic.getTopic(), dropped);
+        }
+        lagSince = oldest.getCreateTime();
+        lag = Math.max(0, brokerContext.getProviders().getPersistenceProvider().getLatestOffset(topic.getTopic()) - oldest.getOffset() + 1);
+        return disconnectIfLagging(brokerContext);
     }
 
-    private long publish0(BrokerContext brokerContext, int depth, long expectConsumerOffset) {
+    /**
+     * 检查暂停推送的订阅者的滞后情况。此类订阅者不进入推送流程，由{@link SlowConsumerMonitor}定期检查，
+     * 以暂停时的消费点位计算滞后
+     */
+    void checkStalledLag(BrokerContext brokerContext) {
+        //暂停标记先于消费点位读取，保证读到暂停前写入的点位
+        if (!blocked.get() && !parked) {
+            return;
+        }
         PersistenceProvider persistenceProvider = brokerContext.getProviders().getPersistenceProvider();
-        int version = topic.getVersion().get();
-        PersistenceMessage persistenceMessage = persistenceProvider.get(topic.getTopic(), expectConsumerOffset);
-        if (persistenceMessage == null) {
-            pushVersion = version;
-            mqttSession.flush();
-            return expectConsumerOffset;
+        List<PersistenceMessage> messages = persistenceProvider.get(topic.getTopic(), nextConsumerOffset, 1, 1);
+        if (messages.isEmpty()) {
+            return;
         }
-        if (depth > 16) {
-            mqttSession.flush();
-//            System.out.println("退出递归...");
-            return expectConsumerOffset;
+        PersistenceMessage oldest = messages.get(0);
+        lagSince = oldest.getCreateTime();
+        lag = Math.max(0, persistenceProvider.getLatestOffset(topic.getTopic()) - oldest.getOffset() + 1);
+        disconnectIfLagging(brokerContext);
+    }
+
+    /**
+     * @return false:滞后超过disconnect策略的上限，连接已断开
+     */
+    private boolean disconnectIfLagging(BrokerContext brokerContext) {
+        SlowConsumerPolicy policy = topic.getSlowConsumerPolicy();
+        if (SlowConsumerPolicy.DISCONNECT.equals(policy.getType()) && getLagTime() > policy.getMaxLagTime()) {
+            LOGGER.warn("client:{} lags {}ms behind topic:{}, disconnect", mqttSession.getClientId(), getLagTime(), topic.getTopic());
+            brokerContext.getPushMetrics().incrementSlowConsumerDisconnect();
+            mqttSession.disconnect();
+            return false;
         }
+        return true;
+    }
 
-        MqttMessageBuilders.PublishBuilder publishBuilder = MqttMessageBuilders.publish().payload(persistenceMessage.getPayload()).qos(mqttQoS).topicName(persistenceMessage.getTopic());
+    /**
+     * 推送单条消息
+     *
+     * @return false:飞行队列已满
+     */
+    private boolean publish(BrokerContext brokerContext, PushScheduler scheduler, PersistenceMessage persistenceMessage) {
+        MqttMessageBuilders.PublishBuilder publishBuilder = MqttMessageBuilders.publish().qos(mqttQoS).topicName(persistenceMessage.getTopic());
         if (mqttQoS == MqttQoS.AT_LEAST_ONCE || mqttQoS == MqttQoS.EXACTLY_ONCE) {
-            publishBuilder.packetId(mqttSession.newPacketId());
+            //消息需保留至收到响应以便重发，负载拷贝至堆内，同一消息的各订阅者共享一份拷贝
+            publishBuilder.payload(persistenceMessage.getPayload()).packetId(mqttSession.newPacketId());
+        } else {
+            //Qos0消息同步写入输出缓冲区，直接读取存储中的负载
+            publishBuilder.payload(persistenceMessage.getPayloadBuffer());
         }
         if (mqttSession.getMqttVersion() == MqttVersion.MQTT_5) {
             publishBuilder.publishProperties(new PublishProperties());
         }
+        publishBuilder.encodedHeader(persistenceMessage.getEncodedHeader(mqttSession.getMqttVersion(), mqttQoS, false));
 
         MqttPublishMessage publishMessage = publishBuilder.build();
 
+        //Qos0消息无需响应，不占用飞行窗口，写入后即提交点位
+        if (mqttQoS == MqttQoS.AT_MOST_ONCE) {
+            mqttSession.publish(publishMessage, packetId -> {
+                commitNextConsumerOffset(persistenceMessage.getOffset() + 1);
+                if (persistenceMessage.isRetained()) {
+                    setRetainConsumerOffset(getRetainConsumerOffset() + 1);
+                }
+                commitRetainConsumerTimestamp(persistenceMessage.getCreateTime());
+            }, false);
+            brokerContext.getEventBus().publish(EventType.PUSH_PUBLISH_MESSAGE, mqttSession);
+            return true;
+        }
         InflightQueue inflightQueue = mqttSession.getInflightQueue();
         int index = inflightQueue.offer(publishMessage, persistenceMessage.getOffset());
         // 飞行队列已满
         if (index == -1) {
-            mqttSession.flush();
-//            System.out.println("queue is full..." + expectConsumerOffset);
-            return expectConsumerOffset;
+            return false;
         }
-        long start = System.currentTimeMillis();
         mqttSession.publish(publishMessage, packetId -> {
             //最早发送的消息若收到响应，则更新点位
             long offset = inflightQueue.commit(index);
+            //飞行窗口释放，恢复推送
+            if (blocked.compareAndSet(true, false)) {
+                scheduler.schedule(this);
+            }
             if (offset == -1) {
                 return;
             }
@@ -109,13 +284,8 @@ public class TopicSubscriber {
             }
             commitRetainConsumerTimestamp(persistenceMessage.getCreateTime());
         }, false);
-        long cost = System.currentTimeMillis() - start;
-        if (cost > 100) {
-            System.out.println("publish busy ,cost: " + cost);
-        }
         brokerContext.getEventBus().publish(EventType.PUSH_PUBLISH_MESSAGE, mqttSession);
-        //递归处理下一个消息
-        return publish0(brokerContext, ++depth, expectConsumerOffset + 1);
+        return true;
     }
 
     public BrokerTopic getTopic() {
@@ -151,6 +321,24 @@ public class TopicSubscriber {
         this.retainConsumerOffset = retainConsumerOffset;
     }
 
+    void setRetainMessage(PersistenceMessage retainMessage) {
+        this.retainMessage = retainMessage;
+        this.retainMessageResolved = true;
+    }
+
+    /**
+     * 获取当前Topic的保留消息，订阅建立时已查得的保留消息仅使用一次，此后从存储中查询
+     */
+    PersistenceMessage getRetainMessage(RetainMessageProvider retainMessageProvider) {
+        if (retainMessageResolved) {
+            retainMessageResolved = false;
+            PersistenceMessage message = retainMessage;
+            retainMessage = null;
+            return message;
+        }
+        return retainMessageProvider.get(topic.getTopic());
+    }
+
     public long getLatestSubscribeTime() {
         return latestSubscribeTime;
     }
@@ -174,4 +362,80 @@ public class TopicSubscriber {
     public int getPushVersion() {
         return pushVersion;
     }
+
+    /**
+     * @return false:已在待推送队列中
+     */
+    boolean markPending() {
+        return pending.compareAndSet(false, true);
+    }
+
+    void clearPending() {
+        pending.set(false);
+    }
+
+    boolean isPending() {
+        return pending.get();
+    }
+
+    boolean isBlocked() {
+        return blocked.get();
+    }
+
+    void setParked(boolean parked) {
+        this.parked = parked;
+    }
+
+    /**
+     * @return false:已在等待链栈中
+     */
+    boolean markWaiting() {
+        return waiting.compareAndSet(false, true);
+    }
+
+    void clearWaiting() {
+        waiting.set(false);
+    }
+
+    TopicSubscriber getWaitingNext() {
+        return waitingNext;
+    }
+
+    void setWaitingNext(TopicSubscriber waitingNext) {
+        this.waitingNext = waitingNext;
+    }
+
+    /**
+     * 因消息已被存储淘汰而跳过的消息数
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 尚未推送的消息数
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * 最早一条尚未推送的消息已等待的时长，单位：毫秒
+     */
+    public long getLagTime() {
+        long since = lagSince;
+        return since == 0 ? 0 : Math.max(0, System.currentTimeMillis() - since);
+    }
+
+    int getLane() {
+        return lane;
+    }
+
+    int getRegistryIndex() {
+        return registryIndex;
+    }
+
+    void setRegistryIndex(int registryIndex) {
+        this.registryIndex = registryIndex;
+    }
 }
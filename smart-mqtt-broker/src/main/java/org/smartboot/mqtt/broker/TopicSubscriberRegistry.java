@@ -0,0 +1,155 @@
+package org.smartboot.mqtt.broker;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Topic的订阅者集合。
+ * <p>
+ * 推送线程以读为主，订阅者存放于数组中，读取方直接访问不可变的快照，无需加锁及创建迭代器。
+ * 新增订阅者时数组按倍数扩容，写入快照长度之外的空位后发布新的长度，已发布的快照不受影响，均摊O(1)；
+ * 替换与取消订阅加锁后复制数组，取消订阅时将末尾的订阅者移至被删除的位置，仅需更新一个订阅者的下标。
+ * 各推送通道的订阅者分别存放于独立的数组中。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public final class TopicSubscriberRegistry {
+    private static final int INITIAL_CAPACITY = 4;
+    /**
+     * 会话与订阅者的映射，用于按会话查找
+     */
+    private final Map<MqttSession, TopicSubscriber> index = new ConcurrentHashMap<>();
+    /**
+     * 按推送通道划分的订阅者快照
+     */
+    private final AtomicReferenceArray<Snapshot> lanes = new AtomicReferenceArray<>(PushScheduler.LANE_COUNT);
+    private volatile int size;
+
+    public TopicSubscriberRegistry() {
+        for (int i = 0; i < lanes.length(); i++) {
+            lanes.set(i, Snapshot.EMPTY);
+        }
+    }
+
+    /**
+     * 新增订阅者，会话已存在订阅时替换原订阅者
+     *
+     * @return 被替换的订阅者
+     */
+    public synchronized TopicSubscriber put(MqttSession session, TopicSubscriber subscriber) {
+        TopicSubscriber preSubscriber = index.put(session, subscriber);
+        Snapshot snapshot = lanes.get(subscriber.getLane());
+        //同一通道内直接替换
+        if (preSubscriber != null && preSubscriber.getLane() == subscriber.getLane()) {
+            TopicSubscriber[] newArray = snapshot.subscribers.clone();
+            subscriber.setRegistryIndex(preSubscriber.getRegistryIndex());
+            preSubscriber.setRegistryIndex(-1);
+            newArray[subscriber.getRegistryIndex()] = subscriber;
+            publish(subscriber.getLane(), new Snapshot(newArray, snapshot.size));
+            return preSubscriber;
+        }
+        if (preSubscriber != null) {
+            removeFromLane(preSubscriber);
+        }
+        TopicSubscriber[] array = snapshot.subscribers;
+        int length = snapshot.size;
+        if (length == array.length) {
+            array = Arrays.copyOf(array, Math.max(INITIAL_CAPACITY, length << 1));
+        }
+        //写入已发布快照的长度之外，读取方不可见
+        array[length] = subscriber;
+        subscriber.setRegistryIndex(length);
+        publish(subscriber.getLane(), new Snapshot(array, length + 1));
+        return preSubscriber;
+    }
+
+    /**
+     * 移除会话的订阅者
+     *
+     * @return 被移除的订阅者
+     */
+    public synchronized TopicSubscriber remove(MqttSession session) {
+        TopicSubscriber subscriber = index.remove(session);
+        if (subscriber != null) {
+            removeFromLane(subscriber);
+        }
+        return subscriber;
+    }
+
+    private void removeFromLane(TopicSubscriber subscriber) {
+        Snapshot snapshot = lanes.get(subscriber.getLane());
+        TopicSubscriber[] array = snapshot.subscribers;
+        int removeIndex = subscriber.getRegistryIndex();
+        int lastIndex = snapshot.size - 1;
+        Snapshot newSnapshot = Snapshot.EMPTY;
+        if (lastIndex > 0) {
+            TopicSubscriber[] newArray = Arrays.copyOf(array, lastIndex);
+            //末尾的订阅者填补被删除的位置
+            if (removeIndex != lastIndex) {
+                TopicSubscriber last = array[lastIndex];
+                last.setRegistryIndex(removeIndex);
+                newArray[removeIndex] = last;
+            }
+            newSnapshot = new Snapshot(newArray, lastIndex);
+        }
+        subscriber.setRegistryIndex(-1);
+        publish(subscriber.getLane(), newSnapshot);
+    }
+
+    private void publish(int lane, Snapshot snapshot) {
+        lanes.set(lane, snapshot);
+        int total = 0;
+        for (int i = 0; i < lanes.length(); i++) {
+            total += lanes.get(i).size;
+        }
+        size = total;
+    }
+
+    public TopicSubscriber get(MqttSession session) {
+        return index.get(session);
+    }
+
+    /**
+     * 获取指定推送通道的订阅者快照
+     */
+    public Snapshot snapshot(int lane) {
+        return lanes.get(lane);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 订阅者快照，数组容量可能大于订阅者数，仅前size个元素有效
+     */
+    public static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new TopicSubscriber[0], 0);
+        private final TopicSubscriber[] subscribers;
+        private final int size;
+
+        private Snapshot(TopicSubscriber[] subscribers, int size) {
+            this.subscribers = subscribers;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public TopicSubscriber get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            return subscribers[index];
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.TopicToken;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 按层级组织的Topic索引树。
+ * <p>
+ * 通配符订阅时沿主题过滤器逐级查找：普通层级仅访问同名节点，“+”遍历当前节点的子节点，“#”遍历整棵子树，
+ * 无需对全部Topic逐一匹配。
+ * </p>
+ * <p>
+ * 查找过程无锁。新增与移除Topic仅锁定路径上的单个节点：新增子节点前确认节点未被移除，
+ * 节点在无Topic且无子节点时才会被移除，并发新增遇到已移除的节点时从根节点重试。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public final class TopicTree {
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+    private final Node root = new Node(null, null);
+
+    public void add(BrokerTopic topic) {
+        Node node;
+        do {
+            node = root;
+            TopicToken topicToken = topic.getTopicToken();
+            for (int i = 0; i < topicToken.getLevelCount() && node != null; i++) {
+                node = node.child(topicToken.getNode(i));
+            }
+        } while (node == null || !node.setTopic(topic));
+    }
+
+    public void remove(BrokerTopic topic) {
+        Node node = root;
+        TopicToken topicToken = topic.getTopicToken();
+        for (int i = 0; i < topicToken.getLevelCount() && node != null; i++) {
+            node = node.children.get(topicToken.getNode(i));
+        }
+        if (node == null || !node.clearTopic(topic)) {
+            return;
+        }
+        //移除不再使用的节点
+        while (node != root && node.prune()) {
+            node = node.parent;
+        }
+    }
+
+    /**
+     * 查找与主题过滤器匹配的全部Topic
+     */
+    public void match(TopicToken topicFilterToken, Consumer<BrokerTopic> consumer) {
+        match(root, topicFilterToken, 0, consumer);
+    }
+
+    private void match(Node node, TopicToken topicFilterToken, int level, Consumer<BrokerTopic> consumer) {
+        if (level == topicFilterToken.getLevelCount()) {
+            node.accept(consumer);
+            return;
+        }
+        switch (topicFilterToken.getNode(level)) {
+            case MULTI_LEVEL_WILDCARD:
+                //#匹配当前层级及其所有子层级
+                if (node != root) {
+                    node.accept(consumer);
+                }
+                node.children.values().forEach(child -> matchAll(child, consumer));
+                break;
+            case SINGLE_LEVEL_WILDCARD:
+                node.children.values().forEach(child -> match(child, topicFilterToken, level + 1, consumer));
+                break;
+            default:
+                Node child = node.children.get(topicFilterToken.getNode(level));
+                if (child != null) {
+                    match(child, topicFilterToken, level + 1, consumer);
+                }
+                break;
+        }
+    }
+
+    private void matchAll(Node node, Consumer<BrokerTopic> consumer) {
+        node.accept(consumer);
+        node.children.values().forEach(child -> matchAll(child, consumer));
+    }
+
+    /**
+     * 是否不存在任何Topic
+     */
+    public boolean isEmpty() {
+        return root.children.isEmpty();
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final String level;
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile BrokerTopic topic;
+        /**
+         * 是否已从父节点中移除
+         */
+        private boolean removed;
+
+        Node(Node parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+
+        /**
+         * @return null:当前节点已被移除
+         */
+        synchronized Node child(String level) {
+            if (removed) {
+                return null;
+            }
+            return children.computeIfAbsent(level, key -> new Node(this, key));
+        }
+
+        synchronized boolean setTopic(BrokerTopic topic) {
+            if (removed) {
+                return false;
+            }
+            this.topic = topic;
+            return true;
+        }
+
+        synchronized boolean clearTopic(BrokerTopic topic) {
+            if (this.topic != topic) {
+                return false;
+            }
+            this.topic = null;
+            return true;
+        }
+
+        /**
+         * 节点不再使用时从父节点中移除
+         */
+        synchronized boolean prune() {
+            if (removed || topic != null || !children.isEmpty()) {
+                return false;
+            }
+            removed = true;
+            parent.children.remove(level, this);
+            return true;
+        }
+
+        void accept(Consumer<BrokerTopic> consumer) {
+            BrokerTopic t = topic;
+            if (t != null) {
+                consumer.accept(t);
+            }
+        }
+    }
+}
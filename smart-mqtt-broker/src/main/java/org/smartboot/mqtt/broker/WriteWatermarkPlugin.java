@@ -0,0 +1,32 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.message.MqttMessage;
+import org.smartboot.socket.extension.plugins.AbstractPlugin;
+import org.smartboot.socket.transport.AioSession;
+
+/**
+ * 监听传输层的输出完成事件，输出缓冲区回落至低水位后恢复会话的消息推送
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+class WriteWatermarkPlugin extends AbstractPlugin<MqttMessage> {
+    private final MqttBrokerMessageProcessor processor;
+    private final PushScheduler pushScheduler;
+
+    WriteWatermarkPlugin(MqttBrokerMessageProcessor processor, PushScheduler pushScheduler) {
+        this.processor = processor;
+        this.pushScheduler = pushScheduler;
+    }
+
+    @Override
+    public void afterWrite(AioSession session, int writeSize) {
+        if (writeSize <= 0) {
+            return;
+        }
+        MqttSession mqttSession = processor.getOnlineSessions().get(session.getSessionID());
+        if (mqttSession != null) {
+            mqttSession.onWritten(writeSize, pushScheduler);
+        }
+    }
+}
@@ -36,7 +36,17 @@ public class ServerEventType<T> extends EventType<T> {
     public static final ServerEventType<BrokerTopic> TOPIC_CREATE = new ServerEventType<>("topicCreate");
 
     /**
-     * Broker接收到客户端发送过来的消息
+     * 闲置的Topic被回收
+     */
+    public static final ServerEventType<BrokerTopic> TOPIC_REMOVE = new ServerEventType<>("topicRemove");
+
+    /**
+     * Broker接收到客户端发送过来的消息。
+     * <p>
+     * 启用pooledPayload时负载位于池化内存，事件处理返回后即被释放。
+     * 订阅方若需在返回后继续持有消息或读取负载，须先通过{@link org.smartboot.mqtt.common.message.payload.MqttPublishPayload#getPooledBuffer()}增加引用并在使用完毕后释放，
+     * 或在返回前通过getPayload()拷贝至堆内。
+     * </p>
      */
     public static final ServerEventType<EventObject<MqttPublishMessage>> RECEIVE_PUBLISH_MESSAGE = new ServerEventType<>("receivePublishMessage");
 
@@ -28,7 +28,8 @@ public interface MessageBus {
     void consumer(Consumer consumer, Predicate<MqttPublishMessage> predicate);
 
     /**
-     * 发布消息至总线触发消费
+     * 发布消息至总线触发消费。
+     * 消息的池化负载仅在消费期间有效，异步使用的消费者须自行retain，参见{@link org.smartboot.mqtt.broker.eventbus.ServerEventType#RECEIVE_PUBLISH_MESSAGE}
      */
     void consume(BrokerContext brokerContext, MqttPublishMessage storedMessage);
 
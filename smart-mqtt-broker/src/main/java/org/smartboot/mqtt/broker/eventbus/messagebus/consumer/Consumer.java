@@ -8,5 +8,9 @@ import org.smartboot.mqtt.common.message.MqttPublishMessage;
  * @version V1.0 , 2022/6/25
  */
 public interface Consumer {
+    /**
+     * 消费消息。负载可能位于池化内存中，仅在本方法执行期间有效，
+     * 需异步使用负载时应先拷贝或通过ReferenceCountedBuffer#retain增加引用
+     */
     void consume(BrokerContext brokerContext, MqttPublishMessage publishMessage);
 }
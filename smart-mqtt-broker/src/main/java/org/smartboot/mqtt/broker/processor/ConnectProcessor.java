@@ -9,6 +9,7 @@ import org.smartboot.mqtt.broker.eventbus.EventObject;
 import org.smartboot.mqtt.broker.eventbus.ServerEventType;
 import org.smartboot.mqtt.broker.provider.SessionStateProvider;
 import org.smartboot.mqtt.broker.provider.impl.session.SessionState;
+import org.smartboot.mqtt.common.AckMessage;
 import org.smartboot.mqtt.common.MqttMessageBuilders;
 import org.smartboot.mqtt.common.enums.MqttConnectReturnCode;
 import org.smartboot.mqtt.common.enums.MqttProtocolEnum;
@@ -17,16 +18,24 @@ import org.smartboot.mqtt.common.enums.MqttVersion;
 import org.smartboot.mqtt.common.message.MqttCodecUtil;
 import org.smartboot.mqtt.common.message.MqttConnAckMessage;
 import org.smartboot.mqtt.common.message.MqttConnectMessage;
+import org.smartboot.mqtt.common.message.MqttMessage;
+import org.smartboot.mqtt.common.message.MqttPubCompMessage;
+import org.smartboot.mqtt.common.message.MqttPubRecMessage;
+import org.smartboot.mqtt.common.message.MqttPubRelMessage;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 import org.smartboot.mqtt.common.message.payload.MqttConnectPayload;
 import org.smartboot.mqtt.common.message.payload.WillMessage;
 import org.smartboot.mqtt.common.message.variable.MqttConnAckVariableHeader;
 import org.smartboot.mqtt.common.message.variable.MqttConnectVariableHeader;
+import org.smartboot.mqtt.common.message.variable.MqttPubQosVariableHeader;
 import org.smartboot.mqtt.common.message.variable.properties.ConnectAckProperties;
 import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
+import org.smartboot.mqtt.common.message.variable.properties.ReasonProperties;
 import org.smartboot.mqtt.common.util.MqttUtil;
 import org.smartboot.mqtt.common.util.ValidateUtils;
 
+import java.util.function.Consumer;
+
 import static org.smartboot.mqtt.common.enums.MqttConnectReturnCode.*;
 
 /**
@@ -139,24 +148,45 @@ public class ConnectProcessor implements MqttProcessor<MqttConnectMessage> {
                 //如果清理会话（CleanSession）标志被设置为 1，客户端和服务端必须丢弃之前的任何会话并开始一个新的会话。
                 mqttSession.setCleanSession(true);
                 LOGGER.info("disconnect session:{}", mqttSession);
-                mqttSession.disconnect();
-            } else {
-                //如果mqttSession#cleanSession为false，将还原会话状态
-                mqttSession.disconnect();
-                //如果清理会话（CleanSession）标志被设置为 0，服务端必须基于当前会话（使用客户端标识符识别）的状态恢复与客户端的通信。
-                SessionStateProvider sessionStateProvider = context.getProviders().getSessionStateProvider();
-                SessionState sessionState = sessionStateProvider.get(session.getClientId());
-                if (sessionState != null) {
-                    session.getResponseConsumers().putAll(sessionState.getResponseConsumers());
-                    sessionState.getSubscribers().forEach(session::subscribe);
-                    //客户端设置清理会话（CleanSession）标志为 0 重连时，客户端和服务端必须使用原始的报文标识符重发
-                    //任何未确认的 PUBLISH 报文（如果 QoS>0）和 PUBREL 报文 [MQTT-4.4.0-1]。这是唯一要求客户端或
-                    //服务端重发消息的情况。
-                    session.getResponseConsumers().forEach((key, ackMessage) -> {
+            }
+            //如果mqttSession#cleanSession为false，将存储会话状态用于还原
+            mqttSession.disconnect();
+        }
+        SessionStateProvider sessionStateProvider = context.getProviders().getSessionStateProvider();
+        if (session.isCleanSession()) {
+            //旧会话可能已随Broker重启而不在内存中，需清理已持久化的会话状态
+            if (mqttSession == null) {
+                sessionStateProvider.remove(session.getClientId());
+            }
+        } else {
+            //如果清理会话（CleanSession）标志被设置为 0，服务端必须基于当前会话（使用客户端标识符识别）的状态恢复与客户端的通信。
+            SessionState sessionState = sessionStateProvider.get(session.getClientId());
+            if (sessionState != null) {
+                sessionState.getSubscribers().forEach(session::subscribe);
+                //客户端设置清理会话（CleanSession）标志为 0 重连时，客户端和服务端必须使用原始的报文标识符重发
+                //任何未确认的 PUBLISH 报文（如果 QoS>0）和 PUBREL 报文 [MQTT-4.4.0-1]。这是唯一要求客户端或
+                //服务端重发消息的情况。
+                sessionState.getResponseConsumers().forEach((key, ackMessage) -> {
+                    MqttMessage originalMessage = ackMessage.getOriginalMessage();
+                    if (ackMessage.getConsumer() != null) {
                         session.getResponseConsumers().put(key, ackMessage);
-                        session.write(ackMessage.getOriginalMessage());
-                    });
-                }
+                        session.write(originalMessage);
+                    } else if (originalMessage instanceof MqttPublishMessage) {
+                        //从持久化存储中恢复的消息不含回调，重新发起QoS流程
+                        session.publish((MqttPublishMessage) originalMessage, packetId -> {
+                        });
+                    } else if (originalMessage instanceof MqttPubRecMessage) {
+                        //消息已接收并转发，等待客户端重发pubRel后响应pubComp
+                        boolean mqtt5 = ((MqttPubRecMessage) originalMessage).getVariableHeader().getProperties() != null;
+                        session.getResponseConsumers().put(key, new AckMessage(originalMessage, (Consumer<MqttPubRelMessage>) message -> {
+                            MqttPubQosVariableHeader variableHeader = new MqttPubQosVariableHeader(message.getVariableHeader().getPacketId(), mqtt5 ? new ReasonProperties() : null);
+                            session.write(new MqttPubCompMessage(variableHeader));
+                        }));
+                    } else {
+                        session.write((MqttPubRelMessage) originalMessage, message -> {
+                        });
+                    }
+                });
             }
         }
 
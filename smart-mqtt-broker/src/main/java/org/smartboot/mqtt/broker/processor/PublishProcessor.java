@@ -6,6 +6,7 @@ import org.smartboot.mqtt.broker.BrokerContext;
 import org.smartboot.mqtt.broker.MqttSession;
 import org.smartboot.mqtt.broker.eventbus.EventObject;
 import org.smartboot.mqtt.broker.eventbus.ServerEventType;
+import org.smartboot.mqtt.common.AckMessage;
 import org.smartboot.mqtt.common.enums.MqttQoS;
 import org.smartboot.mqtt.common.enums.MqttVersion;
 import org.smartboot.mqtt.common.message.MqttPubAckMessage;
@@ -70,26 +71,33 @@ public class PublishProcessor extends AuthorizedMqttProcessor<MqttPublishMessage
         }
         MqttPubAckMessage pubAckMessage = new MqttPubAckMessage(variableHeader);
 
-        session.write(pubAckMessage);
-
         // 消息投递至消息总线
         context.getEventBus().publish(ServerEventType.RECEIVE_PUBLISH_MESSAGE, EventObject.newEventObject(session, mqttPublishMessage));
+
+        //消息持久化完成后再响应
+        context.getProviders().getPersistenceProvider().commit(() -> session.write(pubAckMessage));
     }
 
     private void processQos2(BrokerContext context, MqttSession session, MqttPublishMessage mqttPublishMessage) {
-        //暂存publishMessage
+        final int messageId = mqttPublishMessage.getVariableHeader().getPacketId();
         //todo
         MqttPubQosVariableHeader variableHeader;
         if (mqttPublishMessage.getVersion() == MqttVersion.MQTT_5) {
             ReasonProperties properties = new ReasonProperties();
-            variableHeader = new MqttPubQosVariableHeader(mqttPublishMessage.getVariableHeader().getPacketId(), properties);
+            variableHeader = new MqttPubQosVariableHeader(messageId, properties);
         } else {
-            variableHeader = new MqttPubQosVariableHeader(mqttPublishMessage.getVariableHeader().getPacketId(), null);
+            variableHeader = new MqttPubQosVariableHeader(messageId, null);
         }
         MqttPubRecMessage pubRecMessage = new MqttPubRecMessage(variableHeader);
+        //已存储但尚未收到pubRel的重复消息，仅重发pubRec
+        AckMessage ackMessage = session.getResponseConsumers().get(messageId);
+        if (ackMessage != null && ackMessage.getOriginalMessage() instanceof MqttPubRecMessage) {
+            session.write(pubRecMessage);
+            return;
+        }
         //响应监听
-        session.write(pubRecMessage, (Consumer<MqttPubRelMessage>) message -> {
-            //发送pubRel消息。
+        session.getResponseConsumers().put(messageId, new AckMessage(pubRecMessage, (Consumer<MqttPubRelMessage>) message -> {
+            //发送pubComp消息。
             //todo
             MqttPubQosVariableHeader qosVariableHeader;
             if (mqttPublishMessage.getVersion() == MqttVersion.MQTT_5) {
@@ -98,10 +106,13 @@ public class PublishProcessor extends AuthorizedMqttProcessor<MqttPublishMessage
             } else {
                 qosVariableHeader = new MqttPubQosVariableHeader(message.getVariableHeader().getPacketId(), null);
             }
-            MqttPubCompMessage pubRelMessage = new MqttPubCompMessage(qosVariableHeader);
-            session.write(pubRelMessage);
-            // 消息投递至消息总线
-            context.getEventBus().publish(ServerEventType.RECEIVE_PUBLISH_MESSAGE, EventObject.newEventObject(session, mqttPublishMessage));
-        });
+            MqttPubCompMessage pubCompMessage = new MqttPubCompMessage(qosVariableHeader);
+            session.write(pubCompMessage);
+        }));
+        // 消息投递至消息总线，收到消息即存储并转发，pubRel仅用于释放报文标识符
+        context.getEventBus().publish(ServerEventType.RECEIVE_PUBLISH_MESSAGE, EventObject.newEventObject(session, mqttPublishMessage));
+
+        //消息持久化完成后再响应
+        context.getProviders().getPersistenceProvider().commit(() -> session.write(pubRecMessage));
     }
 }
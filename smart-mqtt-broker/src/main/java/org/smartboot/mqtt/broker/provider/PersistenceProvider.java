@@ -3,6 +3,9 @@ package org.smartboot.mqtt.broker.provider;
 import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 消息持久化Provider
  *
@@ -26,6 +29,29 @@ public interface PersistenceProvider {
      */
     PersistenceMessage get(String topic, long startOffset);
 
+    /**
+     * 批量获取从startOffset开始点位连续的消息，若startOffset不存在，则从之后最近的一条开始
+     *
+     * @param maxCount 最多获取的消息数
+     * @param maxBytes 负载总量上限，负载总量达到该值后不再获取后续消息
+     */
+    default List<PersistenceMessage> get(String topic, long startOffset, int maxCount, int maxBytes) {
+        List<PersistenceMessage> messages = new ArrayList<>(Math.min(maxCount, 16));
+        //startOffset已被淘汰时从最早的消息开始
+        PersistenceMessage message = get(topic, Math.max(startOffset, getOldestOffset(topic)));
+        int bytes = 0;
+        while (message != null && messages.size() < maxCount && bytes < maxBytes) {
+            messages.add(message);
+            bytes += message.getPayloadLength();
+            long nextOffset = message.getOffset() + 1;
+            message = get(topic, nextOffset);
+            if (message != null && message.getOffset() != nextOffset) {
+                break;
+            }
+        }
+        return messages;
+    }
+
     /**
      * 获取存储topic消息最早的点位
      */
@@ -36,4 +62,11 @@ public interface PersistenceProvider {
      */
     long getLatestOffset(String topic);
 
+    /**
+     * 此前保存的消息落盘后执行回调，不保证落盘的存储立即执行
+     */
+    default void commit(Runnable callback) {
+        callback.run();
+    }
+
 }
@@ -1,6 +1,8 @@
 package org.smartboot.mqtt.broker.provider;
 
 import org.smartboot.mqtt.broker.provider.impl.message.MemoryPersistenceProvider;
+import org.smartboot.mqtt.broker.provider.impl.retain.MemoryRetainMessageProvider;
+import org.smartboot.mqtt.broker.provider.impl.retain.PersistenceRetainMessageProvider;
 import org.smartboot.mqtt.broker.provider.impl.session.MemorySessionStateProvider;
 
 /**
@@ -10,7 +12,7 @@ import org.smartboot.mqtt.broker.provider.impl.session.MemorySessionStateProvide
 public class Providers {
     private SessionStateProvider sessionStateProvider = new MemorySessionStateProvider();
 
-    private PersistenceProvider retainMessageProvider = new MemoryPersistenceProvider();
+    private RetainMessageProvider retainMessageProvider = new MemoryRetainMessageProvider();
     private PersistenceProvider persistenceProvider = new MemoryPersistenceProvider();
 
     private ConnectAuthenticationProvider connectAuthenticationProvider;
@@ -25,14 +27,22 @@ public class Providers {
         this.sessionStateProvider = sessionStateProvider;
     }
 
-    public PersistenceProvider getRetainMessageProvider() {
+    public RetainMessageProvider getRetainMessageProvider() {
         return retainMessageProvider;
     }
 
-    public void setRetainMessageProvider(PersistenceProvider retainMessageProvider) {
+    public void setRetainMessageProvider(RetainMessageProvider retainMessageProvider) {
         this.retainMessageProvider = retainMessageProvider;
     }
 
+    /**
+     * @deprecated 保留消息改由{@link RetainMessageProvider}存储，请使用{@link #setRetainMessageProvider(RetainMessageProvider)}
+     */
+    @Deprecated
+    public void setRetainMessageProvider(PersistenceProvider retainMessageProvider) {
+        this.retainMessageProvider = new PersistenceRetainMessageProvider(retainMessageProvider);
+    }
+
     public PersistenceProvider getPersistenceProvider() {
         return persistenceProvider;
     }
@@ -0,0 +1,37 @@
+package org.smartboot.mqtt.broker.provider;
+
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * 保留消息Provider，每个Topic至多保存一条保留消息
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/13
+ */
+public interface RetainMessageProvider {
+
+    /**
+     * 保存保留消息，替换该Topic现存的保留消息。
+     * 保留消息的点位全局递增，可用于判断订阅者是否已消费过该消息
+     */
+    void save(MqttPublishMessage message);
+
+    /**
+     * 移除指定Topic的保留消息
+     */
+    void delete(String topic);
+
+    /**
+     * 获取指定Topic的保留消息，不存在则返回null
+     */
+    PersistenceMessage get(String topic);
+
+    /**
+     * 遍历与主题过滤器匹配的保留消息
+     */
+    void forEach(TopicToken topicFilter, Consumer<PersistenceMessage> consumer);
+}
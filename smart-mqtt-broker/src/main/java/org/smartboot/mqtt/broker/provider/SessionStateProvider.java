@@ -2,6 +2,9 @@ package org.smartboot.mqtt.broker.provider;
 
 import org.smartboot.mqtt.broker.provider.impl.session.SessionState;
 
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
 /**
  * 会话状态Provider
  *
@@ -23,4 +26,18 @@ public interface SessionStateProvider {
      * 清理会话状态
      */
     void remove(String clientId);
+
+    /**
+     * 遍历已存储的会话状态，用于判断离线会话订阅的Topic
+     */
+    default void forEach(BiConsumer<String, SessionState> consumer) {
+    }
+
+    /**
+     * 遍历离线会话订阅的主题过滤器，同一主题过滤器可能出现多次。
+     * 默认通过{@link #forEach(BiConsumer)}实现，会话状态加载代价较高时应维护独立的索引
+     */
+    default void forEachTopicFilter(Consumer<String> consumer) {
+        forEach((clientId, sessionState) -> sessionState.getSubscribers().keySet().forEach(consumer));
+    }
 }
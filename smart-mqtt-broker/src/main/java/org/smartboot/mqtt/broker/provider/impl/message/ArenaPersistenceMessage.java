@@ -0,0 +1,71 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 负载存储于堆外slab中的消息，通过引用计数管理slab空间的回收
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/8
+ */
+class ArenaPersistenceMessage extends PersistenceMessage {
+    private final PayloadArena.Slab slab;
+    private final int position;
+    private final int length;
+    /**
+     * 存储队列持有1个引用，读取方在使用期间各持有1个引用
+     */
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    ArenaPersistenceMessage(MqttPublishMessage message, long offset, PayloadArena.Slab slab, int position, int length) {
+        super(message.getVariableHeader().getTopicName(), null, message.getFixedHeader().isRetain(), offset, System.currentTimeMillis());
+        this.slab = slab;
+        this.position = position;
+        this.length = length;
+    }
+
+    @Override
+    public boolean retain() {
+        int cnt;
+        do {
+            cnt = refCnt.get();
+            //已被存储队列释放
+            if (cnt == 0) {
+                return false;
+            }
+        } while (!refCnt.compareAndSet(cnt, cnt + 1));
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            slab.release();
+        }
+    }
+
+    @Override
+    public ByteBuffer getPayloadBuffer() {
+        return slab.slice(position, length);
+    }
+
+    @Override
+    public byte[] getPayload() {
+        if (!retain()) {
+            return null;
+        }
+        try {
+            return copyPayload();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return length;
+    }
+}
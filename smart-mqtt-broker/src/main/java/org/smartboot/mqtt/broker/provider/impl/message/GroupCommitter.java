@@ -0,0 +1,136 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 组提交：汇总一个提交窗口内所有会话写入的消息，统一刷盘一次后再批量执行回调
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/13
+ */
+class GroupCommitter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitter.class);
+    /**
+     * 自上次提交以来发生过写入的存储队列
+     */
+    private final Set<MappedMessageStoreQueue> dirtyQueues = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    /**
+     * 提交窗口，单位：毫秒
+     */
+    private final long commitInterval;
+    private final Thread commitThread;
+    private List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean running = true;
+
+    GroupCommitter(long commitInterval) {
+        this.commitInterval = Math.max(0, commitInterval);
+        commitThread = new Thread(this::commitLoop, "store-group-commit");
+        commitThread.setDaemon(true);
+        commitThread.start();
+    }
+
+    /**
+     * 标记存储队列存在未刷盘的数据，需先于对应的回调注册
+     */
+    void markDirty(MappedMessageStoreQueue queue) {
+        dirtyQueues.add(queue);
+    }
+
+    /**
+     * 注册回调，下一次刷盘完成后执行
+     */
+    void commit(Runnable callback) {
+        lock.lock();
+        try {
+            if (!running) {
+                callback.run();
+                return;
+            }
+            callbacks.add(callback);
+            if (callbacks.size() == 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            commitThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            List<Runnable> batch;
+            lock.lock();
+            try {
+                while (running && callbacks.isEmpty()) {
+                    notEmpty.await();
+                }
+                if (!running && callbacks.isEmpty()) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            //等待提交窗口结束，汇总窗口内到达的消息
+            if (commitInterval > 0 && running) {
+                try {
+                    Thread.sleep(commitInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            lock.lock();
+            try {
+                batch = callbacks;
+                callbacks = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            //回调注册前已标记脏队列，此时刷盘可覆盖本批次的全部消息
+            Iterator<MappedMessageStoreQueue> iterator = dirtyQueues.iterator();
+            while (iterator.hasNext()) {
+                MappedMessageStoreQueue queue = iterator.next();
+                iterator.remove();
+                try {
+                    queue.flush();
+                } catch (Throwable throwable) {
+                    LOGGER.error("flush store queue exception", throwable);
+                }
+            }
+            for (Runnable callback : batch) {
+                try {
+                    callback.run();
+                } catch (Throwable throwable) {
+                    LOGGER.warn("execute commit callback exception", throwable);
+                }
+            }
+        }
+    }
+}
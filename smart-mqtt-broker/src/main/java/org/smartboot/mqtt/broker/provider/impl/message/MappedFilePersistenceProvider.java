@@ -0,0 +1,191 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.broker.StoreConfigure;
+import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于内存映射文件的消息持久化，每个Topic对应一个目录，消息以追加方式写入segment文件。
+ * 重启后已存在的Topic在首次访问时加载。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/4
+ */
+public class MappedFilePersistenceProvider implements PersistenceProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFilePersistenceProvider.class);
+    private static final int MAX_DIR_NAME_LENGTH = 128;
+    private final ConcurrentHashMap<String, MappedMessageStoreQueue> topicQueues = new ConcurrentHashMap<>();
+    /**
+     * 磁盘中已存在，但尚未加载的Topic目录
+     */
+    private final Set<String> unloadDirs = ConcurrentHashMap.newKeySet();
+    private final File baseDir;
+    private final StoreConfigure storeConfigure;
+    /**
+     * 组提交，未开启同步刷盘时为null
+     */
+    private final GroupCommitter committer;
+
+    public MappedFilePersistenceProvider(StoreConfigure storeConfigure) {
+        this.storeConfigure = storeConfigure;
+        this.baseDir = new File(storeConfigure.getDir());
+        if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+            throw new IllegalStateException("create store dir: " + baseDir.getAbsolutePath() + " fail");
+        }
+        String[] dirs = baseDir.list((dir, name) -> new File(dir, name).isDirectory());
+        if (dirs != null) {
+            for (String dir : dirs) {
+                unloadDirs.add(dir);
+            }
+        }
+        if (storeConfigure.isDurable()) {
+            committer = new GroupCommitter(storeConfigure.getGroupCommitInterval());
+            LOGGER.info("enable durable store, groupCommitInterval:{}ms", storeConfigure.getGroupCommitInterval());
+        } else {
+            committer = null;
+        }
+        LOGGER.info("init file store at:{}, exists topic:{}", baseDir.getAbsolutePath(), unloadDirs.size());
+    }
+
+    @Override
+    public void doSave(MqttPublishMessage message) {
+        MappedMessageStoreQueue queue = getStoreQueue(message.getVariableHeader().getTopicName(), true);
+        queue.put(message);
+        if (committer != null) {
+            committer.markDirty(queue);
+        }
+    }
+
+    /**
+     * 以消息原有的点位写入，点位需大于该Topic已存储的最新点位
+     */
+    public void save(PersistenceMessage message) {
+        if (!message.retain()) {
+            return;
+        }
+        try {
+            getStoreQueue(message.getTopic(), true).put(message.getOffset(), message.getCreateTime(), message.isRetained(), message.getPayloadBuffer());
+        } finally {
+            message.release();
+        }
+    }
+
+    @Override
+    public void delete(String topic) {
+        MappedMessageStoreQueue queue = getStoreQueue(topic, false);
+        if (queue != null && topicQueues.remove(topic, queue)) {
+            queue.destroy();
+        }
+    }
+
+    @Override
+    public PersistenceMessage get(String topic, long startOffset) {
+        MappedMessageStoreQueue queue = getStoreQueue(topic, false);
+        return queue == null ? null : queue.get(startOffset);
+    }
+
+    @Override
+    public List<PersistenceMessage> get(String topic, long startOffset, int maxCount, int maxBytes) {
+        MappedMessageStoreQueue queue = getStoreQueue(topic, false);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        List<PersistenceMessage> messages = new ArrayList<>(Math.min(maxCount, 64));
+        queue.get(startOffset, maxCount, maxBytes, messages);
+        return messages;
+    }
+
+    @Override
+    public long getOldestOffset(String topic) {
+        MappedMessageStoreQueue queue = getStoreQueue(topic, false);
+        return queue == null ? 0 : queue.getOldestOffset();
+    }
+
+    @Override
+    public long getLatestOffset(String topic) {
+        MappedMessageStoreQueue queue = getStoreQueue(topic, false);
+        return queue == null ? -1 : queue.getLatestOffset();
+    }
+
+    @Override
+    public void commit(Runnable callback) {
+        if (committer == null) {
+            callback.run();
+        } else {
+            committer.commit(callback);
+        }
+    }
+
+    /**
+     * 将所有Topic的数据刷入磁盘
+     */
+    public void flush() {
+        topicQueues.values().forEach(MappedMessageStoreQueue::flush);
+    }
+
+    public void close() {
+        if (committer != null) {
+            committer.close();
+        }
+        topicQueues.values().forEach(MappedMessageStoreQueue::close);
+        topicQueues.clear();
+    }
+
+    private MappedMessageStoreQueue getStoreQueue(String topic, boolean create) {
+        MappedMessageStoreQueue queue = topicQueues.get(topic);
+        if (queue != null) {
+            return queue;
+        }
+        if (!create && unloadDirs.isEmpty()) {
+            return null;
+        }
+        String dirName = dirName(topic);
+        if (!create && !unloadDirs.contains(dirName)) {
+            return null;
+        }
+        return topicQueues.computeIfAbsent(topic, t -> {
+            try {
+                MappedMessageStoreQueue storeQueue = new MappedMessageStoreQueue(t, new File(baseDir, dirName), storeConfigure.getSegmentSize(), storeConfigure.getIndexInterval(), storeConfigure.getMaxSegments());
+                unloadDirs.remove(dirName);
+                return storeQueue;
+            } catch (IOException e) {
+                throw new RuntimeException("load topic:" + t + " exception", e);
+            }
+        });
+    }
+
+    /**
+     * Topic对应的目录名，过长的Topic名采用摘要值
+     */
+    private static String dirName(String topic) {
+        try {
+            String name = URLEncoder.encode(topic, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+            if (name.length() <= MAX_DIR_NAME_LENGTH) {
+                return name;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder("sha256_");
+            for (byte b : digest.digest(topic.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 单个Topic的消息日志，由多个顺序写入的segment文件组成
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/4
+ */
+class MappedMessageStoreQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedMessageStoreQueue.class);
+    private static final MappedSegment[] EMPTY_SEGMENTS = new MappedSegment[0];
+    private final String topic;
+    private final File dir;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final int maxSegments;
+    /**
+     * 按点位升序排列的segment，写入时整体替换
+     */
+    private volatile MappedSegment[] segments = EMPTY_SEGMENTS;
+    /**
+     * 最近写入的消息点位
+     */
+    private volatile long latestOffset = -1;
+
+    MappedMessageStoreQueue(String topic, File dir, int segmentSize, int indexInterval, int maxSegments) throws IOException {
+        this.topic = topic;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.maxSegments = maxSegments;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("create store dir: " + dir + " fail");
+        }
+        load();
+    }
+
+    private void load() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(MappedSegment.SUFFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        MappedSegment[] loaded = new MappedSegment[files.length];
+        for (int i = 0; i < files.length; i++) {
+            loaded[i] = MappedSegment.load(files[i], indexInterval);
+        }
+        segments = loaded;
+        latestOffset = loaded[loaded.length - 1].getLastOffset();
+        LOGGER.info("load topic:{} from {} segments, oldestOffset:{} latestOffset:{}", topic, loaded.length, getOldestOffset(), latestOffset);
+    }
+
+    public synchronized void put(MqttPublishMessage msg) {
+        put(latestOffset + 1, System.currentTimeMillis(), msg.getFixedHeader().isRetain(), msg.getPayload().getPayloadBuffer());
+    }
+
+    /**
+     * 以指定点位写入消息，点位需大于已存储的最新点位，不连续时新建segment
+     */
+    public synchronized void put(long offset, long createTime, boolean retained, ByteBuffer payload) {
+        if (offset <= latestOffset) {
+            LOGGER.warn("topic:{} ignore message, offset:{} latestOffset:{}", topic, offset, latestOffset);
+            return;
+        }
+        MappedSegment[] current = segments;
+        if (current.length == 0 || offset != latestOffset + 1 || !current[current.length - 1].append(offset, createTime, retained, payload)) {
+            MappedSegment segment;
+            try {
+                segment = MappedSegment.create(dir, offset, Math.max(segmentSize, 4 + MappedSegment.RECORD_HEADER_LENGTH + payload.remaining()), indexInterval);
+            } catch (IOException e) {
+                throw new RuntimeException("create segment for topic:" + topic + " exception", e);
+            }
+            segment.append(offset, createTime, retained, payload);
+            //淘汰最早的segment
+            int retain = Math.min(current.length, Math.max(maxSegments, 1) - 1);
+            MappedSegment[] newSegments = new MappedSegment[retain + 1];
+            System.arraycopy(current, current.length - retain, newSegments, 0, retain);
+            newSegments[retain] = segment;
+            segments = newSegments;
+            for (int i = 0; i < current.length - retain; i++) {
+                current[i].destroy();
+            }
+        }
+        latestOffset = offset;
+    }
+
+    public PersistenceMessage get(long offset) {
+        if (offset > latestOffset) {
+            return null;
+        }
+        MappedSegment[] current = segments;
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].getBaseOffset() <= offset) {
+                return current[i].read(topic, offset);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 批量读取连续的消息，点位不存在时从之后最近的消息开始读取
+     */
+    public void get(long offset, int maxCount, int maxBytes, List<PersistenceMessage> messages) {
+        MappedSegment[] current = segments;
+        if (current.length == 0) {
+            return;
+        }
+        offset = Math.max(offset, current[0].getBaseOffset());
+        int i = current.length - 1;
+        while (i > 0 && current[i].getBaseOffset() > offset) {
+            i--;
+        }
+        for (; i < current.length && messages.size() < maxCount && maxBytes > 0; i++) {
+            int size = messages.size();
+            //点位不连续时，跳过空缺部分
+            if (size == 0) {
+                offset = Math.max(offset, current[i].getBaseOffset());
+            }
+            maxBytes -= current[i].read(topic, offset, maxCount - size, maxBytes, messages);
+            offset += messages.size() - size;
+        }
+    }
+
+    /**
+     * 获取最早的消息点位
+     */
+    public long getOldestOffset() {
+        MappedSegment[] current = segments;
+        return current.length == 0 ? 0 : current[0].getBaseOffset();
+    }
+
+    /**
+     * 获取最近的消息点位
+     */
+    public long getLatestOffset() {
+        return latestOffset;
+    }
+
+    public void flush() {
+        for (MappedSegment segment : segments) {
+            segment.flush();
+        }
+    }
+
+    public void close() {
+        for (MappedSegment segment : segments) {
+            segment.flush();
+            segment.close();
+        }
+    }
+
+    /**
+     * 删除当前Topic的全部消息文件
+     */
+    public synchronized void destroy() {
+        MappedSegment[] current = segments;
+        segments = EMPTY_SEGMENTS;
+        for (MappedSegment segment : current) {
+            segment.destroy();
+        }
+        if (!dir.delete()) {
+            LOGGER.warn("delete store dir:{} fail", dir);
+        }
+    }
+}
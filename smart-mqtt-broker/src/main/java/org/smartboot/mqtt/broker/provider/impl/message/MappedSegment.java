@@ -0,0 +1,247 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * 内存映射的消息段文件，文件名为该段首条消息的点位。
+ * <pre>
+ * 消息记录格式：
+ *  | 4byte: 记录长度(不含自身) | 8byte: 点位 | 8byte: 存储时间 | 1byte: 标志位 | payload |
+ * </pre>
+ * 记录长度为0表示已到达有效数据末尾。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/4
+ */
+class MappedSegment {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedSegment.class);
+    static final String SUFFIX = ".log";
+    /**
+     * 点位(8) + 存储时间(8) + 标志位(1)
+     */
+    static final int RECORD_HEADER_LENGTH = 17;
+    private static final byte FLAG_RETAINED = 0x01;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    /**
+     * 当前segment的起始点位
+     */
+    private final long baseOffset;
+    private final int indexInterval;
+    /**
+     * 稀疏索引:点位 -> 文件内位置
+     */
+    private volatile long[] indexOffsets = new long[16];
+    private volatile int[] indexPositions = new int[16];
+    private volatile int indexCount;
+    /**
+     * 写入位置，仅由写线程访问
+     */
+    private int writePosition;
+    /**
+     * 当前segment中最后一条消息的点位
+     */
+    private volatile long lastOffset;
+
+    private MappedSegment(File file, long baseOffset, int size, int indexInterval) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.indexInterval = indexInterval;
+        this.lastOffset = baseOffset - 1;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    static MappedSegment create(File dir, long baseOffset, int size, int indexInterval) throws IOException {
+        return new MappedSegment(new File(dir, fileName(baseOffset)), baseOffset, size, indexInterval);
+    }
+
+    /**
+     * 加载已存在的segment文件，并重建稀疏索引
+     */
+    static MappedSegment load(File file, int indexInterval) throws IOException {
+        String name = file.getName();
+        long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        MappedSegment segment = new MappedSegment(file, baseOffset, (int) file.length(), indexInterval);
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d", baseOffset) + SUFFIX;
+    }
+
+    private void recover() {
+        int position = 0;
+        long expectOffset = baseOffset;
+        while (position + 4 + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < RECORD_HEADER_LENGTH || position + 4 + length > buffer.capacity()) {
+                break;
+            }
+            long offset = buffer.getLong(position + 4);
+            if (offset != expectOffset) {
+                LOGGER.warn("segment:{} is broken at position:{}, expect offset:{} but:{}", file, position, expectOffset, offset);
+                break;
+            }
+            addIndex(offset, position);
+            position += 4 + length;
+            expectOffset++;
+        }
+        writePosition = position;
+        lastOffset = expectOffset - 1;
+    }
+
+    /**
+     * 追加消息，剩余空间不足时返回false
+     */
+    boolean append(long offset, long createTime, boolean retained, ByteBuffer payload) {
+        int length = RECORD_HEADER_LENGTH + payload.remaining();
+        if (writePosition + 4 + length > buffer.capacity()) {
+            return false;
+        }
+        ByteBuffer writeBuffer = buffer.duplicate();
+        writeBuffer.position(writePosition + 4);
+        writeBuffer.putLong(offset);
+        writeBuffer.putLong(createTime);
+        writeBuffer.put(retained ? FLAG_RETAINED : 0);
+        writeBuffer.put(payload.duplicate());
+        //最后写入长度，保证读线程不会读到不完整的记录
+        buffer.putInt(writePosition, length);
+        addIndex(offset, writePosition);
+        writePosition += 4 + length;
+        lastOffset = offset;
+        return true;
+    }
+
+    private void addIndex(long offset, int position) {
+        if ((offset - baseOffset) % indexInterval != 0) {
+            return;
+        }
+        int count = indexCount;
+        if (count == indexOffsets.length) {
+            long[] offsets = new long[count << 1];
+            int[] positions = new int[count << 1];
+            System.arraycopy(indexOffsets, 0, offsets, 0, count);
+            System.arraycopy(indexPositions, 0, positions, 0, count);
+            indexOffsets = offsets;
+            indexPositions = positions;
+        }
+        indexOffsets[count] = offset;
+        indexPositions[count] = position;
+        indexCount = count + 1;
+    }
+
+    /**
+     * 读取指定点位的消息
+     */
+    PersistenceMessage read(String topic, long offset) {
+        if (offset < baseOffset || offset > lastOffset) {
+            return null;
+        }
+        return read(topic, buffer.duplicate(), locate(offset));
+    }
+
+    /**
+     * 从指定点位开始顺序读取连续的消息
+     *
+     * @param maxCount 最多读取的消息数
+     * @param maxBytes 负载总量上限，已读取的负载总量达到该值后停止
+     * @return 本次读取的负载总量
+     */
+    int read(String topic, long offset, int maxCount, int maxBytes, List<PersistenceMessage> messages) {
+        long last = lastOffset;
+        if (offset < baseOffset || offset > last) {
+            return 0;
+        }
+        ByteBuffer readBuffer = buffer.duplicate();
+        int position = locate(offset);
+        int bytes = 0;
+        for (int i = 0; i < maxCount && offset <= last && bytes < maxBytes; i++, offset++) {
+            PersistenceMessage message = read(topic, readBuffer, position);
+            messages.add(message);
+            bytes += message.getPayloadLength();
+            position += 4 + buffer.getInt(position);
+        }
+        return bytes;
+    }
+
+    /**
+     * 通过稀疏索引定位消息在文件中的位置
+     */
+    private int locate(long offset) {
+        int count = indexCount;
+        long[] offsets = indexOffsets;
+        int[] positions = indexPositions;
+        //二分查找不大于offset的最近索引项
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int position = positions[low];
+        long current = offsets[low];
+        while (current < offset) {
+            position += 4 + buffer.getInt(position);
+            current++;
+        }
+        return position;
+    }
+
+    private PersistenceMessage read(String topic, ByteBuffer readBuffer, int position) {
+        int length = buffer.getInt(position);
+        readBuffer.position(position + 4);
+        long storedOffset = readBuffer.getLong();
+        long createTime = readBuffer.getLong();
+        byte flag = readBuffer.get();
+        byte[] payload = new byte[length - RECORD_HEADER_LENGTH];
+        readBuffer.get(payload);
+        return new PersistenceMessage(topic, payload, (flag & FLAG_RETAINED) != 0, storedOffset, createTime);
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getLastOffset() {
+        return lastOffset;
+    }
+
+    void flush() {
+        buffer.force();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("close segment:{} exception", file, e);
+        }
+    }
+
+    /**
+     * 关闭并删除segment文件。已映射的内存由GC回收，正在读取的线程不受影响
+     */
+    void destroy() {
+        close();
+        if (!file.delete()) {
+            LOGGER.warn("delete segment:{} fail", file);
+        }
+    }
+}
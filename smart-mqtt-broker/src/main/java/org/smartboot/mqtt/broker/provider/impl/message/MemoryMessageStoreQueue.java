@@ -3,8 +3,13 @@ package org.smartboot.mqtt.broker.provider.impl.message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.payload.ReferenceCountedBuffer;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * @author 三刀
@@ -12,29 +17,203 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 class MemoryMessageStoreQueue {
     private static final Logger LOGGER = LoggerFactory.getLogger(MemoryMessageStoreQueue.class);
-    private final PersistenceMessage[] store = new PersistenceMessage[64];
+    /**
+     * 存储数组的初始长度，随写入逐步扩容至capacity
+     */
+    private static final int INITIAL_SIZE = 4;
+    /**
+     * 单条消息除负载外的估算内存开销
+     */
+    private static final int MESSAGE_OVERHEAD = 64;
+    private static final PersistenceMessage[] EMPTY_STORE = new PersistenceMessage[0];
+    private final int capacity;
+    /**
+     * 堆外负载存储区，为null时负载存储于堆内
+     */
+    private final PayloadArena arena;
+    private volatile PersistenceMessage[] store = EMPTY_STORE;
     private final AtomicLong putOffset = new AtomicLong(-1);
+    /**
+     * 被淘汰前的消息点位，小于该点位的消息已不可读
+     */
+    private volatile long evictOffset;
+    /**
+     * 当前队列占用的内存估算值
+     */
+    private long memoryBytes;
+    /**
+     * 最近一次写入的序号，用于淘汰最久未写入的队列
+     */
+    private volatile long writeSequence;
+
+    /**
+     * 被覆盖或淘汰的消息的处理器，为null时直接丢弃
+     */
+    private final Consumer<PersistenceMessage> evictConsumer;
 
-    public void put(MqttPublishMessage msg) {
-        PersistenceMessage message = new PersistenceMessage(msg, putOffset.incrementAndGet());
+    MemoryMessageStoreQueue(int capacity) {
+        this(capacity, null, 0, null);
+    }
+
+    /**
+     * @param startOffset 首条消息的点位
+     */
+    MemoryMessageStoreQueue(int capacity, PayloadArena arena, long startOffset, Consumer<PersistenceMessage> evictConsumer) {
+        this.capacity = capacity;
+        this.arena = arena;
+        this.evictConsumer = evictConsumer;
+        this.putOffset.set(startOffset - 1);
+        this.evictOffset = startOffset;
+    }
+
+    /**
+     * 存储消息
+     *
+     * @return 本次写入引起的内存占用变化量
+     */
+    public synchronized long put(MqttPublishMessage msg, long sequence) {
+        long offset = putOffset.get() + 1;
+        PersistenceMessage message;
+        ReferenceCountedBuffer pooledBuffer = msg.getPayload().getPooledBuffer();
+        if (pooledBuffer != null && pooledBuffer.retain()) {
+            //直接引用解码时的池化内存
+            message = new PooledPersistenceMessage(msg, offset, pooledBuffer);
+        } else {
+            message = arena == null ? new PersistenceMessage(msg, offset) : arena.newMessage(msg, offset);
+        }
+        PersistenceMessage[] array = store;
+        if (message.getOffset() - evictOffset >= array.length && array.length < capacity) {
+            array = grow(array);
+        }
+        int index = (int) (message.getOffset() % array.length);
+        PersistenceMessage old = array[index];
+        //先转存再覆盖，保证读取方在内存未命中时可从转存处读到
+        if (old != null && evictConsumer != null) {
+            evictConsumer.accept(old);
+        }
+        array[index] = message;
+        putOffset.set(message.getOffset());
 //        LOGGER.info("store message, offset:{}", msg.getOffset());
-        store[(int) (message.getOffset() % store.length)] = message;
+        writeSequence = sequence;
+        long delta = sizeOf(message);
+        if (old != null) {
+            delta -= sizeOf(old);
+            old.release();
+        }
+        memoryBytes += delta;
+        return delta;
+    }
+
+    private PersistenceMessage[] grow(PersistenceMessage[] array) {
+        PersistenceMessage[] newArray = new PersistenceMessage[Math.min(capacity, Math.max(INITIAL_SIZE, array.length << 1))];
+        for (PersistenceMessage message : array) {
+            if (message != null) {
+                newArray[(int) (message.getOffset() % newArray.length)] = message;
+            }
+        }
+        store = newArray;
+        return newArray;
     }
 
     public PersistenceMessage get(long offset) {
-        PersistenceMessage storedMessage = store[(int) (offset % store.length)];
+        PersistenceMessage[] array = store;
+        if (array.length == 0 || offset < evictOffset) {
+            return null;
+        }
+        PersistenceMessage storedMessage = array[(int) (offset % array.length)];
         if (storedMessage == null) {
             return null;
         }
         return storedMessage.getOffset() == offset ? storedMessage : null;
     }
 
+    /**
+     * 批量读取连续的消息，点位早于最早的消息时从最早的消息开始读取
+     */
+    public List<PersistenceMessage> get(long offset, int maxCount, int maxBytes) {
+        PersistenceMessage[] array = store;
+        long latestOffset = putOffset.get();
+        offset = Math.max(offset, Math.max(latestOffset - array.length + 1, evictOffset));
+        if (array.length == 0 || offset > latestOffset) {
+            return Collections.emptyList();
+        }
+        List<PersistenceMessage> messages = new ArrayList<>((int) Math.min(maxCount, latestOffset - offset + 1));
+        int index = (int) (offset % array.length);
+        int bytes = 0;
+        while (offset <= latestOffset && messages.size() < maxCount && bytes < maxBytes) {
+            PersistenceMessage message = array[index];
+            //已被新写入的消息覆盖
+            if (message == null || message.getOffset() != offset) {
+                break;
+            }
+            messages.add(message);
+            bytes += message.getPayloadLength();
+            offset++;
+            if (++index == array.length) {
+                index = 0;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 淘汰除最新一条以外的全部消息，并收缩存储空间
+     *
+     * @return 释放的内存估算值
+     */
+    public synchronized long evict() {
+        long latestOffset = putOffset.get();
+        if (latestOffset < 0 || store.length <= 1) {
+            return 0;
+        }
+        PersistenceMessage latest = get(latestOffset);
+        PersistenceMessage[] old = store;
+        long oldestOffset = getOldestOffset();
+        //按点位顺序转存被淘汰的消息，全部转存后才从内存中移除
+        if (evictConsumer != null) {
+            for (long offset = oldestOffset; offset < latestOffset; offset++) {
+                PersistenceMessage message = old[(int) (offset % old.length)];
+                if (message != null && message.getOffset() == offset) {
+                    evictConsumer.accept(message);
+                }
+            }
+        }
+        PersistenceMessage[] array = new PersistenceMessage[1];
+        array[0] = latest;
+        evictOffset = latestOffset;
+        store = array;
+        for (long offset = oldestOffset; offset < latestOffset; offset++) {
+            PersistenceMessage message = old[(int) (offset % old.length)];
+            if (message != null && message.getOffset() == offset) {
+                message.release();
+            }
+        }
+        long released = memoryBytes - (latest == null ? 0 : sizeOf(latest));
+        memoryBytes -= released;
+        return released;
+    }
+
+    /**
+     * 清空队列，释放消息占用的存储空间
+     */
+    public synchronized void clear() {
+        PersistenceMessage[] old = store;
+        store = EMPTY_STORE;
+        evictOffset = putOffset.get() + 1;
+        memoryBytes = 0;
+        for (PersistenceMessage message : old) {
+            if (message != null) {
+                message.release();
+            }
+        }
+    }
+
     /**
      * 获取最早的消息点位。该点位随时可能被新增的消息覆盖
      */
     public long getOldestOffset() {
-        long offset = putOffset.get() - store.length;
-        return offset > 0 ? offset : 0;
+        long offset = putOffset.get() - store.length + 1;
+        return Math.max(Math.max(offset, 0), evictOffset);
     }
 
     /**
@@ -46,4 +225,15 @@ class MemoryMessageStoreQueue {
         return putOffset.get();
     }
 
+    public long getWriteSequence() {
+        return writeSequence;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private static long sizeOf(PersistenceMessage message) {
+        return message.getPayloadLength() + MESSAGE_OVERHEAD;
+    }
 }
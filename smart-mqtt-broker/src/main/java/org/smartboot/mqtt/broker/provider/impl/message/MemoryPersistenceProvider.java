@@ -1,27 +1,153 @@
 package org.smartboot.mqtt.broker.provider.impl.message;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.broker.StoreConfigure;
 import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.common.TopicToken;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+import org.smartboot.mqtt.common.util.ValidateUtils;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 /**
  * @author 三刀（zhengjunweimail@163.com）
  * @version V1.0 , 2022/6/25
  */
 public class MemoryPersistenceProvider implements PersistenceProvider {
-    private static final MemoryMessageStoreQueue EMPTY_QUEUE = new MemoryMessageStoreQueue();
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryPersistenceProvider.class);
+    private static final MemoryMessageStoreQueue EMPTY_QUEUE = new MemoryMessageStoreQueue(1);
     private final ConcurrentHashMap<String, MemoryMessageStoreQueue> topicQueues = new ConcurrentHashMap<>();
+    /**
+     * 默认的Topic消息容量
+     */
+    private final int capacity;
+    /**
+     * 按Topic匹配的消息容量
+     */
+    private final Map<TopicToken, Integer> topicCapacities = new LinkedHashMap<>();
+    /**
+     * 内存占用上限
+     */
+    private final long memoryBudget;
+    /**
+     * 当前内存占用估算值
+     */
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    /**
+     * 堆外负载存储区，未开启时为null
+     */
+    private final PayloadArena arena;
+
+    public MemoryPersistenceProvider() {
+        this(new StoreConfigure());
+    }
+
+    public MemoryPersistenceProvider(StoreConfigure storeConfigure) {
+        ValidateUtils.isTrue(storeConfigure.getCapacity() > 0, "store capacity must >0");
+        this.capacity = storeConfigure.getCapacity();
+        this.memoryBudget = storeConfigure.getMemoryBudget();
+        for (StoreConfigure.TopicConfigure topicConfigure : storeConfigure.getTopics()) {
+            ValidateUtils.isTrue(topicConfigure.getCapacity() >= 0, "capacity of topic: " + topicConfigure.getPattern() + " must >=0");
+            //仅配置了其他规则
+            if (topicConfigure.getCapacity() > 0) {
+                topicCapacities.put(new TopicToken(topicConfigure.getPattern()), topicConfigure.getCapacity());
+            }
+        }
+        if (storeConfigure.isOffHeap()) {
+            ValidateUtils.isTrue(storeConfigure.getSlabSize() > 0, "store slabSize must >0");
+            arena = new PayloadArena(storeConfigure.getSlabSize(), storeConfigure.getMaxOffHeapSize());
+            LOGGER.info("enable off-heap store, slabSize:{} maxOffHeapSize:{}", storeConfigure.getSlabSize(), storeConfigure.getMaxOffHeapSize());
+        } else {
+            arena = null;
+        }
+    }
 
     @Override
     public void doSave(MqttPublishMessage message) {
-        MemoryMessageStoreQueue queue = topicQueues.computeIfAbsent(message.getVariableHeader().getTopicName(), s -> new MemoryMessageStoreQueue());
-        queue.put(message);
+        MemoryMessageStoreQueue queue = topicQueues.computeIfAbsent(message.getVariableHeader().getTopicName(), s -> new MemoryMessageStoreQueue(getCapacity(s), arena, getStartOffset(s), this::onEvict));
+        long bytes = memoryBytes.addAndGet(queue.put(message, writeSequence.incrementAndGet()));
+        if (memoryBudget > 0 && bytes > memoryBudget) {
+            evict();
+        }
+    }
+
+    /**
+     * 淘汰最久未写入的Topic，直至内存占用降至上限的90%
+     */
+    private void evict() {
+        //已有线程在执行淘汰
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            long lowWatermark = memoryBudget - memoryBudget / 10;
+            if (memoryBytes.get() <= lowWatermark) {
+                return;
+            }
+            List<Map.Entry<String, MemoryMessageStoreQueue>> entries = topicQueues.entrySet().stream().filter(entry -> entry.getValue().getMemoryBytes() > 0).sorted(Comparator.comparingLong(entry -> entry.getValue().getWriteSequence())).collect(Collectors.toCollection(ArrayList::new));
+            int evictCount = 0;
+            for (Map.Entry<String, MemoryMessageStoreQueue> entry : entries) {
+                if (memoryBytes.get() <= lowWatermark) {
+                    break;
+                }
+                long released = entry.getValue().evict();
+                if (released > 0) {
+                    memoryBytes.addAndGet(-released);
+                    evictCount++;
+                }
+            }
+            LOGGER.info("memory store exceeds budget:{}, evict {} topics, current:{}", memoryBudget, evictCount, memoryBytes.get());
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    /**
+     * 新建Topic存储队列时首条消息的点位
+     */
+    protected long getStartOffset(String topic) {
+        return 0;
+    }
+
+    /**
+     * 消息因容量或内存上限被移出内存时触发，调用方持有该消息的存储队列锁，且按点位顺序触发
+     */
+    protected void onEvict(PersistenceMessage message) {
+    }
+
+    private int getCapacity(String topic) {
+        if (topicCapacities.isEmpty()) {
+            return capacity;
+        }
+        TopicToken topicToken = TopicToken.lookup(topic);
+        for (Map.Entry<TopicToken, Integer> entry : topicCapacities.entrySet()) {
+            if (TopicTokenUtil.match(topicToken, entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return capacity;
     }
 
     @Override
     public void delete(String topic) {
-        topicQueues.remove(topic);
+        MemoryMessageStoreQueue queue = topicQueues.remove(topic);
+        if (queue != null) {
+            long bytes = queue.getMemoryBytes();
+            queue.clear();
+            memoryBytes.addAndGet(-bytes);
+        }
     }
 
 
@@ -30,6 +156,11 @@ public class MemoryPersistenceProvider implements PersistenceProvider {
         return getStoreQueue(topic).get(startOffset);
     }
 
+    @Override
+    public List<PersistenceMessage> get(String topic, long startOffset, int maxCount, int maxBytes) {
+        return getStoreQueue(topic).get(startOffset, maxCount, maxBytes);
+    }
+
     @Override
     public long getOldestOffset(String topic) {
         return getStoreQueue(topic).getOldestOffset();
@@ -40,6 +171,13 @@ public class MemoryPersistenceProvider implements PersistenceProvider {
         return getStoreQueue(topic).getLatestOffset();
     }
 
+    /**
+     * 当前内存占用估算值
+     */
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
     private MemoryMessageStoreQueue getStoreQueue(String topic) {
         MemoryMessageStoreQueue storeQueue = topicQueues.get(topic);
         return storeQueue == null ? EMPTY_QUEUE : storeQueue;
@@ -0,0 +1,162 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 堆外负载存储区，由若干个固定大小的堆外内存块(slab)组成。
+ * 各写线程共享当前slab，通过CAS顺序分配空间，slab写满后替换为新的slab，slab内所有消息都被释放后回收复用。
+ * 超出堆外内存上限或单条负载大于slab时，退化为堆内存储。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/8
+ */
+class PayloadArena {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PayloadArena.class);
+    private final int slabSize;
+    private final int maxSlabs;
+    private final AtomicInteger slabCount = new AtomicInteger();
+    /**
+     * 可复用的slab
+     */
+    private final ConcurrentLinkedQueue<Slab> freeSlabs = new ConcurrentLinkedQueue<>();
+    /**
+     * 当前正在分配的slab，存储区持有其一个引用。
+     * 由各写线程共享，停止写入的线程不会持有未写满的slab。
+     */
+    private final AtomicReference<Slab> currentSlab = new AtomicReference<>();
+
+    PayloadArena(int slabSize, long maxSize) {
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.max(1, maxSize / slabSize);
+    }
+
+    /**
+     * 将消息负载拷贝至堆外存储
+     */
+    PersistenceMessage newMessage(MqttPublishMessage message, long offset) {
+        int length = message.getPayload().getLength();
+        if (length == 0 || length > slabSize) {
+            return new PersistenceMessage(message, offset);
+        }
+        while (true) {
+            Slab slab = currentSlab.get();
+            //先持有引用，避免分配期间slab被回收复用
+            if (slab != null && slab.retain()) {
+                int position = slab.reserve(length);
+                if (position >= 0) {
+                    ByteBuffer buffer = slab.buffer.duplicate();
+                    buffer.position(position);
+                    buffer.put(message.getPayload().getPayloadBuffer());
+                    return new ArenaPersistenceMessage(message, offset, slab, position, length);
+                }
+                slab.release();
+            }
+            if (!replace(slab)) {
+                return new PersistenceMessage(message, offset);
+            }
+        }
+    }
+
+    /**
+     * 替换剩余空间不足的当前slab
+     *
+     * @return 堆外内存已达上限时返回false
+     */
+    private boolean replace(Slab full) {
+        if (currentSlab.get() != full) {
+            return true;
+        }
+        Slab slab = freeSlabs.poll();
+        if (slab == null) {
+            if (slabCount.incrementAndGet() > maxSlabs) {
+                slabCount.decrementAndGet();
+                return false;
+            }
+            slab = new Slab(this, ByteBuffer.allocateDirect(slabSize));
+            LOGGER.debug("allocate slab, total:{}", slabCount.get());
+        }
+        slab.position.set(0);
+        slab.refCnt.set(1);
+        if (currentSlab.compareAndSet(full, slab)) {
+            //释放存储区对原slab的持有
+            if (full != null) {
+                full.release();
+            }
+        } else {
+            //其他线程已完成替换
+            slab.release();
+        }
+        return true;
+    }
+
+    private void recycle(Slab slab) {
+        freeSlabs.offer(slab);
+    }
+
+    static final class Slab {
+        private final PayloadArena arena;
+        private final ByteBuffer buffer;
+        /**
+         * 分配位置
+         */
+        private final AtomicInteger position = new AtomicInteger();
+        /**
+         * 存活的消息数 + 存储区的持有
+         */
+        private final AtomicInteger refCnt = new AtomicInteger();
+
+        Slab(PayloadArena arena, ByteBuffer buffer) {
+            this.arena = arena;
+            this.buffer = buffer;
+        }
+
+        /**
+         * 分配指定长度的空间
+         *
+         * @return 分配的起始位置，剩余空间不足时返回-1
+         */
+        private int reserve(int length) {
+            while (true) {
+                int current = position.get();
+                if (buffer.capacity() - current < length) {
+                    return -1;
+                }
+                if (position.compareAndSet(current, current + length)) {
+                    return current;
+                }
+            }
+        }
+
+        private boolean retain() {
+            while (true) {
+                int cnt = refCnt.get();
+                if (cnt == 0) {
+                    return false;
+                }
+                if (refCnt.compareAndSet(cnt, cnt + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        ByteBuffer slice(int position, int length) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position);
+            slice.limit(position + length);
+            return slice;
+        }
+
+        void release() {
+            if (refCnt.decrementAndGet() == 0) {
+                arena.recycle(this);
+            }
+        }
+    }
+}
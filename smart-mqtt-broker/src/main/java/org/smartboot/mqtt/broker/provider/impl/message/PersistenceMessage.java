@@ -1,8 +1,14 @@
 package org.smartboot.mqtt.broker.provider.impl.message;
 
 import org.smartboot.mqtt.common.ToString;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.enums.MqttVersion;
+import org.smartboot.mqtt.common.message.EncodedPublishHeader;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+
 /**
  * @author 三刀（zhengjunweimail@163.com）
  * @version V1.0 , 2022/6/24
@@ -26,19 +32,96 @@ public class PersistenceMessage extends ToString {
     /**
      * 消息存储时间
      */
-    private final long createTime = System.currentTimeMillis();
+    private final long createTime;
+
+    /**
+     * 按(MQTT版本, Qos, retain)缓存的预编码报头
+     */
+    private volatile EncodedPublishHeader[] encodedHeaders;
+    /**
+     * 负载不在堆内时的堆内拷贝，以弱引用缓存
+     */
+    private volatile WeakReference<byte[]> heapPayload;
 
     public PersistenceMessage(MqttPublishMessage message, long offset) {
-        this.payload = message.getPayload().getPayload();
-        this.retained = message.getFixedHeader().isRetain();
-        this.topic = message.getVariableHeader().getTopicName();
+        this(message.getVariableHeader().getTopicName(), message.getPayload().getPayload(), message.getFixedHeader().isRetain(), offset, System.currentTimeMillis());
+    }
+
+    public PersistenceMessage(String topic, byte[] payload, boolean retained, long offset, long createTime) {
+        this.payload = payload;
+        this.retained = retained;
+        this.topic = topic;
         this.offset = offset;
+        this.createTime = createTime;
     }
 
+    /**
+     * 获取负载数据。若消息已被存储淘汰，返回null
+     */
     public byte[] getPayload() {
         return payload;
     }
 
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+    /**
+     * 获取负载数据视图，仅在retain成功后至release之前有效
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return ByteBuffer.wrap(payload);
+    }
+
+    /**
+     * 获取预编码的报头，同一消息推送给多个订阅者时只需编码一次
+     */
+    public EncodedPublishHeader getEncodedHeader(MqttVersion version, MqttQoS qos, boolean retain) {
+        EncodedPublishHeader[] headers = encodedHeaders;
+        if (headers == null) {
+            headers = new EncodedPublishHeader[12];
+            encodedHeaders = headers;
+        }
+        int index = (version == MqttVersion.MQTT_5 ? 6 : 0) + qos.value() * 2 + (retain ? 1 : 0);
+        EncodedPublishHeader header = headers[index];
+        //MQTT 3.x各版本的报头编码一致
+        if (header == null) {
+            header = EncodedPublishHeader.encode(version, qos, retain, topic, getPayloadLength());
+            headers[index] = header;
+        }
+        return header;
+    }
+
+    /**
+     * 将负载拷贝至堆内，调用方需已持有引用。
+     * 拷贝仍被推送中的消息引用时，其余订阅者共享同一份拷贝，QoS1/2消息广播时每条消息只拷贝一次
+     */
+    protected final byte[] copyPayload() {
+        WeakReference<byte[]> reference = heapPayload;
+        byte[] bytes = reference == null ? null : reference.get();
+        if (bytes == null) {
+            bytes = new byte[getPayloadLength()];
+            getPayloadBuffer().get(bytes);
+            heapPayload = new WeakReference<>(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * 读取负载前增加引用，防止存储空间被回收。
+     *
+     * @return false:消息已被淘汰，不可再读取
+     */
+    public boolean retain() {
+        return true;
+    }
+
+    /**
+     * 释放retain所持有的引用
+     */
+    public void release() {
+    }
+
     public String getTopic() {
         return topic;
     }
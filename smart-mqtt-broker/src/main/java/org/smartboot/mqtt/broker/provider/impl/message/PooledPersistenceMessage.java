@@ -0,0 +1,71 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.payload.ReferenceCountedBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 负载直接引用解码时池化内存的消息，所有引用释放后归还池化内存
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/14
+ */
+class PooledPersistenceMessage extends PersistenceMessage {
+    private final ReferenceCountedBuffer pooledBuffer;
+    /**
+     * 存储队列持有1个引用，读取方在使用期间各持有1个引用
+     */
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * @param pooledBuffer 调用方已为当前消息增加引用
+     */
+    PooledPersistenceMessage(MqttPublishMessage message, long offset, ReferenceCountedBuffer pooledBuffer) {
+        super(message.getVariableHeader().getTopicName(), null, message.getFixedHeader().isRetain(), offset, System.currentTimeMillis());
+        this.pooledBuffer = pooledBuffer;
+    }
+
+    @Override
+    public boolean retain() {
+        int cnt;
+        do {
+            cnt = refCnt.get();
+            //已被存储队列释放
+            if (cnt == 0) {
+                return false;
+            }
+        } while (!refCnt.compareAndSet(cnt, cnt + 1));
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            pooledBuffer.release();
+        }
+    }
+
+    @Override
+    public ByteBuffer getPayloadBuffer() {
+        return pooledBuffer.buffer();
+    }
+
+    @Override
+    public byte[] getPayload() {
+        if (!retain()) {
+            return null;
+        }
+        try {
+            return copyPayload();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return pooledBuffer.length();
+    }
+}
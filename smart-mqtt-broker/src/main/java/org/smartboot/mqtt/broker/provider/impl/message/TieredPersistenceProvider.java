@@ -0,0 +1,84 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.smartboot.mqtt.broker.SlowConsumerPolicy;
+import org.smartboot.mqtt.broker.StoreConfigure;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分层消息存储：最近的消息保存在内存中，因容量或内存上限被移出内存的消息转存至segment文件。
+ * 读取时优先访问内存，未命中则读取文件，保证慢速订阅者不丢失消息。
+ * 仅慢速订阅者策略为spill的Topic转存至文件，其余Topic移出内存后即丢弃。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/11
+ */
+public class TieredPersistenceProvider extends MemoryPersistenceProvider {
+    private final MappedFilePersistenceProvider fileProvider;
+    private final StoreConfigure storeConfigure;
+    /**
+     * Topic是否转存至文件
+     */
+    private final Map<String, Boolean> spillTopics = new ConcurrentHashMap<>();
+
+    public TieredPersistenceProvider(StoreConfigure storeConfigure) {
+        super(storeConfigure);
+        this.storeConfigure = storeConfigure;
+        this.fileProvider = new MappedFilePersistenceProvider(storeConfigure);
+    }
+
+    /**
+     * 接续文件中已存储的点位
+     */
+    @Override
+    protected long getStartOffset(String topic) {
+        return fileProvider.getLatestOffset(topic) + 1;
+    }
+
+    @Override
+    protected void onEvict(PersistenceMessage message) {
+        if (spillTopics.computeIfAbsent(message.getTopic(), topic -> SlowConsumerPolicy.resolve(storeConfigure, topic).isSpill())) {
+            fileProvider.save(message);
+        }
+    }
+
+    @Override
+    public void delete(String topic) {
+        super.delete(topic);
+        fileProvider.delete(topic);
+        spillTopics.remove(topic);
+    }
+
+    @Override
+    public PersistenceMessage get(String topic, long startOffset) {
+        PersistenceMessage message = super.get(topic, startOffset);
+        //消息先转存至文件，再从内存中移除，spill策略的Topic内存未命中时文件中必然存在
+        return message == null ? fileProvider.get(topic, startOffset) : message;
+    }
+
+    @Override
+    public List<PersistenceMessage> get(String topic, long startOffset, int maxCount, int maxBytes) {
+        List<PersistenceMessage> messages = super.get(topic, startOffset, maxCount, maxBytes);
+        if (!messages.isEmpty() && messages.get(0).getOffset() == startOffset) {
+            return messages;
+        }
+        List<PersistenceMessage> fileMessages = fileProvider.get(topic, startOffset, maxCount, maxBytes);
+        return fileMessages.isEmpty() ? messages : fileMessages;
+    }
+
+    @Override
+    public long getOldestOffset(String topic) {
+        return fileProvider.getLatestOffset(topic) >= 0 ? fileProvider.getOldestOffset(topic) : super.getOldestOffset(topic);
+    }
+
+    @Override
+    public long getLatestOffset(String topic) {
+        return Math.max(super.getLatestOffset(topic), fileProvider.getLatestOffset(topic));
+    }
+
+    public void close() {
+        fileProvider.close();
+    }
+}
@@ -0,0 +1,123 @@
+package org.smartboot.mqtt.broker.provider.impl.retain;
+
+import org.smartboot.mqtt.broker.provider.RetainMessageProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 基于Topic层级树的内存保留消息存储，通配符订阅只需遍历匹配的分支
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/13
+ */
+public class MemoryRetainMessageProvider implements RetainMessageProvider {
+    private final Node root = new Node(null, null);
+    private final AtomicLong offset = new AtomicLong();
+
+    @Override
+    public synchronized void save(MqttPublishMessage message) {
+        String topic = message.getVariableHeader().getTopicName();
+        Node node = root;
+        int start = 0;
+        int index;
+        do {
+            index = topic.indexOf('/', start);
+            String level = index == -1 ? topic.substring(start) : topic.substring(start, index);
+            Node parent = node;
+            node = parent.children.computeIfAbsent(level, l -> new Node(parent, l));
+            start = index + 1;
+        } while (index != -1);
+        node.message = new PersistenceMessage(message, offset.getAndIncrement());
+    }
+
+    @Override
+    public synchronized void delete(String topic) {
+        Node node = find(topic);
+        if (node == null) {
+            return;
+        }
+        node.message = null;
+        //移除空分支
+        while (node.parent != null && node.message == null && node.children.isEmpty()) {
+            node.parent.children.remove(node.level, node);
+            node = node.parent;
+        }
+    }
+
+    @Override
+    public PersistenceMessage get(String topic) {
+        Node node = find(topic);
+        return node == null ? null : node.message;
+    }
+
+    @Override
+    public void forEach(TopicToken topicFilter, Consumer<PersistenceMessage> consumer) {
+        forEach(root, topicFilter, consumer);
+    }
+
+    private void forEach(Node node, TopicToken topicToken, Consumer<PersistenceMessage> consumer) {
+        if (topicToken == null) {
+            PersistenceMessage message = node.message;
+            if (message != null) {
+                consumer.accept(message);
+            }
+            return;
+        }
+        switch (topicToken.getNode()) {
+            case "#":
+                //#同时匹配父级
+                forEachAll(node, node == root ? null : consumer, consumer);
+                break;
+            case "+":
+                for (Node child : node.children.values()) {
+                    forEach(child, topicToken.getNextNode(), consumer);
+                }
+                break;
+            default:
+                Node child = node.children.get(topicToken.getNode());
+                if (child != null) {
+                    forEach(child, topicToken.getNextNode(), consumer);
+                }
+        }
+    }
+
+    private void forEachAll(Node node, Consumer<PersistenceMessage> self, Consumer<PersistenceMessage> consumer) {
+        PersistenceMessage message = node.message;
+        if (message != null && self != null) {
+            self.accept(message);
+        }
+        for (Node child : node.children.values()) {
+            forEachAll(child, consumer, consumer);
+        }
+    }
+
+    private Node find(String topic) {
+        Node node = root;
+        int start = 0;
+        int index;
+        do {
+            index = topic.indexOf('/', start);
+            node = node.children.get(index == -1 ? topic.substring(start) : topic.substring(start, index));
+            start = index + 1;
+        } while (node != null && index != -1);
+        return node;
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final String level;
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile PersistenceMessage message;
+
+        Node(Node parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.smartboot.mqtt.broker.provider.impl.retain;
+
+import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.broker.provider.RetainMessageProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 兼容以PersistenceProvider存储保留消息的插件，每个Topic以最新点位的消息作为保留消息。
+ * <p>
+ * PersistenceProvider无法按主题过滤器遍历，{@link #forEach(TopicToken, Consumer)}仅覆盖经当前实例保存过的Topic，
+ * 重启前已存储的保留消息不会被通配符订阅匹配。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/13
+ */
+public class PersistenceRetainMessageProvider implements RetainMessageProvider {
+    private final PersistenceProvider persistenceProvider;
+    /**
+     * 存在保留消息的Topic
+     */
+    private final Map<String, TopicToken> topics = new ConcurrentHashMap<>();
+
+    public PersistenceRetainMessageProvider(PersistenceProvider persistenceProvider) {
+        this.persistenceProvider = persistenceProvider;
+    }
+
+    @Override
+    public void save(MqttPublishMessage message) {
+        persistenceProvider.doSave(message);
+        topics.computeIfAbsent(message.getVariableHeader().getTopicName(), TopicToken::new);
+    }
+
+    @Override
+    public void delete(String topic) {
+        topics.remove(topic);
+        persistenceProvider.delete(topic);
+    }
+
+    @Override
+    public PersistenceMessage get(String topic) {
+        long latestOffset = persistenceProvider.getLatestOffset(topic);
+        return latestOffset < 0 ? null : persistenceProvider.get(topic, latestOffset);
+    }
+
+    @Override
+    public void forEach(TopicToken topicFilter, Consumer<PersistenceMessage> consumer) {
+        topics.values().forEach(topicToken -> {
+            if (TopicTokenUtil.match(topicToken, topicFilter)) {
+                PersistenceMessage message = get(topicToken.getTopicFilter());
+                if (message != null) {
+                    consumer.accept(message);
+                }
+            }
+        });
+    }
+}
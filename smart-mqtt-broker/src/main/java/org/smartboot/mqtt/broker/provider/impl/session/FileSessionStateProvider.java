@@ -0,0 +1,457 @@
+package org.smartboot.mqtt.broker.provider.impl.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartboot.mqtt.broker.provider.SessionStateProvider;
+import org.smartboot.mqtt.common.AckMessage;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttMessage;
+import org.smartboot.mqtt.common.message.MqttPubRecMessage;
+import org.smartboot.mqtt.common.message.MqttPubRelMessage;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.variable.MqttPubQosVariableHeader;
+import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
+import org.smartboot.mqtt.common.message.variable.properties.ReasonProperties;
+import org.smartboot.mqtt.common.message.variable.properties.UserProperty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 基于文件的会话状态存储，每个clientId对应一个二进制文件。
+ * <p>
+ * 会话状态先进入待写队列，由后台线程批量落盘，调用方不会阻塞于磁盘IO，落盘失败的状态保留在队列中退避重试；
+ * 重启后不预加载，客户端首次重连时才读取对应文件。
+ * 恢复出的AckMessage不含回调，需由调用方重新驱动QoS流程。
+ * </p>
+ * <p>
+ * 离线会话订阅的主题过滤器另行维护内存索引，首次查询时仅读取各文件的订阅部分构建，此后随store/remove更新，
+ * Topic回收扫描无需反序列化完整的会话状态。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/12
+ */
+public class FileSessionStateProvider implements SessionStateProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSessionStateProvider.class);
+    private static final byte VERSION = 1;
+    private static final String SUFFIX = ".session";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAX_FILE_NAME_LENGTH = 128;
+    /**
+     * 落盘失败后的最长重试间隔
+     */
+    private static final long MAX_RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final byte TYPE_PUBLISH = 1;
+    private static final byte TYPE_PUBREL = 2;
+    /**
+     * 已响应pubRec、等待客户端pubRel的QoS2消息
+     */
+    private static final byte TYPE_PUBREC = 3;
+    /**
+     * 待删除的会话状态标记
+     */
+    private static final SessionState REMOVED = new SessionState();
+    /**
+     * 尚未落盘的会话状态
+     */
+    private final Map<String, SessionState> pendingStates = new ConcurrentHashMap<>();
+    /**
+     * 离线会话订阅的主题过滤器，key为会话文件名。
+     * 索引构建前已移除的会话以空集合占位，避免构建时读取尚未删除的文件
+     */
+    private final Map<String, Set<String>> topicFilterIndex = new HashMap<>();
+    private boolean topicFilterIndexLoaded;
+    private final File baseDir;
+    /**
+     * 批量落盘间隔，单位：毫秒
+     */
+    private final long flushInterval;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Thread flushThread;
+    private volatile boolean running = true;
+
+    public FileSessionStateProvider(String dir, long flushInterval) {
+        this.baseDir = new File(dir);
+        this.flushInterval = Math.max(1, flushInterval);
+        if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+            throw new IllegalStateException("create session dir: " + baseDir.getAbsolutePath() + " fail");
+        }
+        flushThread = new Thread(this::flushLoop, "session-state-flush");
+        flushThread.setDaemon(true);
+        flushThread.start();
+        LOGGER.info("init file session store at:{}", baseDir.getAbsolutePath());
+    }
+
+    @Override
+    public void store(String clientId, SessionState sessionState) {
+        Set<String> topicFilters = new HashSet<>(sessionState.getSubscribers().keySet());
+        synchronized (topicFilterIndex) {
+            topicFilterIndex.put(fileName(clientId), topicFilters);
+        }
+        pendingStates.put(clientId, sessionState);
+        signal();
+    }
+
+    @Override
+    public SessionState get(String clientId) {
+        SessionState sessionState = pendingStates.get(clientId);
+        if (sessionState != null) {
+            return sessionState == REMOVED ? null : sessionState;
+        }
+        File file = new File(baseDir, fileName(clientId) + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return read(file);
+        } catch (IOException e) {
+            LOGGER.error("load session state of client:{} exception", clientId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(String clientId) {
+        synchronized (topicFilterIndex) {
+            if (topicFilterIndexLoaded) {
+                topicFilterIndex.remove(fileName(clientId));
+            } else {
+                topicFilterIndex.put(fileName(clientId), Collections.emptySet());
+            }
+        }
+        pendingStates.put(clientId, REMOVED);
+        signal();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, SessionState> consumer) {
+        pendingStates.forEach((clientId, sessionState) -> {
+            if (sessionState != REMOVED) {
+                consumer.accept(clientId, sessionState);
+            }
+        });
+        File[] files = baseDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            String clientId = clientId(name.substring(0, name.length() - SUFFIX.length()));
+            //以待写队列中的状态为准
+            if (pendingStates.containsKey(clientId)) {
+                continue;
+            }
+            try {
+                SessionState sessionState = read(file);
+                consumer.accept(clientId, sessionState);
+            } catch (IOException e) {
+                LOGGER.warn("load session state file:{} exception", file, e);
+            }
+        }
+    }
+
+    @Override
+    public void forEachTopicFilter(Consumer<String> consumer) {
+        synchronized (topicFilterIndex) {
+            if (!topicFilterIndexLoaded) {
+                loadTopicFilterIndex();
+                topicFilterIndexLoaded = true;
+            }
+            topicFilterIndex.values().forEach(topicFilters -> topicFilters.forEach(consumer));
+        }
+    }
+
+    private void loadTopicFilterIndex() {
+        File[] files = baseDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+                //以内存中的状态为准
+                if (topicFilterIndex.containsKey(name)) {
+                    continue;
+                }
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    topicFilterIndex.put(name, readSubscribers(in).keySet());
+                } catch (IOException e) {
+                    LOGGER.warn("load topic filters of session file:{} exception", file, e);
+                }
+            }
+        }
+        topicFilterIndex.values().removeIf(Set::isEmpty);
+    }
+
+    /**
+     * 将待写的会话状态全部落盘，落盘失败的状态保留在待写队列中等待重试
+     *
+     * @return 全部落盘成功返回true
+     */
+    public synchronized boolean flush() {
+        boolean success = true;
+        for (Map.Entry<String, SessionState> entry : pendingStates.entrySet()) {
+            String clientId = entry.getKey();
+            SessionState sessionState = entry.getValue();
+            File file = new File(baseDir, fileName(clientId) + SUFFIX);
+            try {
+                if (sessionState == REMOVED) {
+                    Files.deleteIfExists(file.toPath());
+                } else {
+                    write(file, sessionState);
+                }
+            } catch (Exception e) {
+                //单个会话落盘失败不影响其余会话
+                LOGGER.error("flush session state of client:{} exception", clientId, e);
+                success = false;
+                continue;
+            }
+            //落盘期间状态未发生变化时才移出待写队列
+            pendingStates.remove(clientId, sessionState);
+        }
+        return success;
+    }
+
+    public void close() {
+        running = false;
+        //中断等待中的后台线程，由当前线程完成最后一次落盘
+        flushThread.interrupt();
+        try {
+            flushThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushLoop() {
+        long interval = flushInterval;
+        while (running) {
+            lock.lock();
+            try {
+                if (running && pendingStates.isEmpty()) {
+                    notEmpty.await();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                //累积一个周期内的变更后批量落盘，失败时按指数退避重试
+                Thread.sleep(interval);
+                interval = flush() ? flushInterval : Math.min(interval * 2, Math.max(flushInterval, MAX_RETRY_INTERVAL));
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable throwable) {
+                LOGGER.error("flush session state exception", throwable);
+            }
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(File file, SessionState sessionState) throws IOException {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeByte(VERSION);
+            out.writeShort(sessionState.getSubscribers().size());
+            for (Map.Entry<String, MqttQoS> entry : sessionState.getSubscribers().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(entry.getValue().value());
+            }
+            out.writeShort(sessionState.getResponseConsumers().size());
+            for (Map.Entry<Integer, AckMessage> entry : sessionState.getResponseConsumers().entrySet()) {
+                out.writeShort(entry.getKey());
+                MqttMessage message = entry.getValue().getOriginalMessage();
+                if (message instanceof MqttPublishMessage) {
+                    out.writeByte(TYPE_PUBLISH);
+                    writePublish(out, (MqttPublishMessage) message);
+                } else if (message instanceof MqttPubRelMessage) {
+                    out.writeByte(TYPE_PUBREL);
+                    out.writeBoolean(((MqttPubRelMessage) message).getVariableHeader().getProperties() != null);
+                } else if (message instanceof MqttPubRecMessage) {
+                    out.writeByte(TYPE_PUBREC);
+                    out.writeBoolean(((MqttPubRecMessage) message).getVariableHeader().getProperties() != null);
+                } else {
+                    throw new IOException("unsupported session message: " + message.getClass().getSimpleName());
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writePublish(DataOutputStream out, MqttPublishMessage message) throws IOException {
+        out.writeByte(message.getFixedHeader().getQosLevel().value());
+        out.writeBoolean(message.getFixedHeader().isRetain());
+        out.writeUTF(message.getVariableHeader().getTopicName());
+        byte[] payload = message.getPayload().getPayload();
+        out.writeInt(payload.length);
+        out.write(payload);
+        PublishProperties properties = message.getVariableHeader().getProperties();
+        out.writeBoolean(properties != null);
+        if (properties == null) {
+            return;
+        }
+        out.writeByte(properties.getPayloadFormatIndicator());
+        out.writeInt(properties.getMessageExpiryInterval());
+        writeNullableUTF(out, properties.getResponseTopic());
+        writeNullableUTF(out, properties.getContentType());
+        byte[] correlationData = properties.getCorrelationData();
+        out.writeInt(correlationData == null ? -1 : correlationData.length);
+        if (correlationData != null) {
+            out.write(correlationData);
+        }
+        out.writeShort(properties.getUserProperties().size());
+        for (UserProperty userProperty : properties.getUserProperties()) {
+            out.writeUTF(userProperty.getKey());
+            out.writeUTF(userProperty.getValue());
+        }
+    }
+
+    private SessionState read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            SessionState sessionState = new SessionState();
+            sessionState.getSubscribers().putAll(readSubscribers(in));
+            int ackCount = in.readUnsignedShort();
+            for (int i = 0; i < ackCount; i++) {
+                int packetId = in.readUnsignedShort();
+                MqttMessage message;
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_PUBLISH:
+                        message = readPublish(in, packetId);
+                        break;
+                    case TYPE_PUBREL:
+                        message = new MqttPubRelMessage(new MqttPubQosVariableHeader(packetId, in.readBoolean() ? new ReasonProperties() : null));
+                        break;
+                    case TYPE_PUBREC:
+                        message = new MqttPubRecMessage(new MqttPubQosVariableHeader(packetId, in.readBoolean() ? new ReasonProperties() : null));
+                        break;
+                    default:
+                        throw new IOException("unsupported session message type: " + type);
+                }
+                sessionState.getResponseConsumers().put(packetId, new AckMessage(message, null));
+            }
+            return sessionState;
+        }
+    }
+
+    /**
+     * 读取文件头及订阅部分
+     */
+    private Map<String, MqttQoS> readSubscribers(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported session state version: " + version);
+        }
+        int subscriberCount = in.readUnsignedShort();
+        Map<String, MqttQoS> subscribers = new HashMap<>();
+        for (int i = 0; i < subscriberCount; i++) {
+            String topicFilter = in.readUTF();
+            subscribers.put(topicFilter, MqttQoS.valueOf(in.readByte()));
+        }
+        return subscribers;
+    }
+
+    private MqttPublishMessage readPublish(DataInputStream in, int packetId) throws IOException {
+        MqttMessageBuilders.PublishBuilder builder = MqttMessageBuilders.publish().qos(MqttQoS.valueOf(in.readByte())).retained(in.readBoolean()).topicName(in.readUTF());
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        builder.payload(payload);
+        builder.packetId(packetId);
+        if (in.readBoolean()) {
+            PublishProperties properties = new PublishProperties();
+            properties.setPayloadFormatIndicator(in.readByte());
+            properties.setMessageExpiryInterval(in.readInt());
+            properties.setResponseTopic(readNullableUTF(in));
+            properties.setContentType(readNullableUTF(in));
+            int correlationLength = in.readInt();
+            if (correlationLength >= 0) {
+                byte[] correlationData = new byte[correlationLength];
+                in.readFully(correlationData);
+                properties.setCorrelationData(correlationData);
+            }
+            int userPropertyCount = in.readUnsignedShort();
+            for (int i = 0; i < userPropertyCount; i++) {
+                properties.getUserProperties().add(new UserProperty(in.readUTF(), in.readUTF()));
+            }
+            builder.publishProperties(properties);
+        }
+        return builder.build();
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * clientId对应的文件名，过长的clientId采用摘要值
+     */
+    private static String fileName(String clientId) {
+        try {
+            String name = URLEncoder.encode(clientId, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+            if (name.length() <= MAX_FILE_NAME_LENGTH) {
+                return name;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder("sha256_");
+            for (byte b : digest.digest(clientId.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 由文件名还原clientId，摘要形式的文件名返回其本身
+     */
+    private static String clientId(String fileName) {
+        try {
+            return URLDecoder.decode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
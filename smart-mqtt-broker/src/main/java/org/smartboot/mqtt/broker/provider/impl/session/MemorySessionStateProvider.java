@@ -4,6 +4,7 @@ import org.smartboot.mqtt.broker.provider.SessionStateProvider;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * @author 三刀（zhengjunweimail@163.com）
@@ -27,4 +28,9 @@ public class MemorySessionStateProvider implements SessionStateProvider {
         sessionStates.remove(clientId);
     }
 
+    @Override
+    public void forEach(BiConsumer<String, SessionState> consumer) {
+        sessionStates.forEach(consumer);
+    }
+
 }
@@ -0,0 +1,187 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.enums.MqttVersion;
+import org.smartboot.mqtt.common.message.MqttMessage;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.payload.MqttPublishPayload;
+import org.smartboot.mqtt.common.protocol.MqttProtocol;
+import org.smartboot.socket.buffer.BufferPagePool;
+import org.smartboot.socket.transport.AioSession;
+import org.smartboot.socket.transport.WriteBuffer;
+import org.smartboot.socket.util.Attachment;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/14
+ */
+public class MqttProtocolTest {
+    private final BufferPagePool pagePool = new BufferPagePool(64 * 1024, 1, false);
+    private final MqttProtocol protocol = new MqttProtocol(1024 * 1024, pagePool);
+    private final AioSession session = newSession();
+
+    @After
+    public void release() {
+        pagePool.release();
+    }
+
+    @Test
+    public void testSplitLargeFrame() {
+        byte[] large = newPayload(300);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, publishFrame("large", large));
+        write(out, publishFrame("small", "hello".getBytes(StandardCharsets.UTF_8)));
+        //报文大于读缓冲区，分多次读取
+        List<MqttPublishMessage> messages = decode(ByteBuffer.allocate(64), out.toByteArray(), 50);
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals("large", messages.get(0).getVariableHeader().getTopicName());
+        Assert.assertNotNull(messages.get(0).getPayload().getPooledBuffer());
+        Assert.assertArrayEquals(large, messages.get(0).getPayload().getPayload());
+        Assert.assertEquals("small", messages.get(1).getVariableHeader().getTopicName());
+        Assert.assertEquals("hello", new String(messages.get(1).getPayload().getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmptyPayload() {
+        List<MqttPublishMessage> messages = decode(ByteBuffer.allocate(64), publishFrame("empty", new byte[0]), 64);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(0, messages.get(0).getPayload().getLength());
+        Assert.assertNull(messages.get(0).getPayload().getPooledBuffer());
+        messages.get(0).getPayload().release();
+    }
+
+    @Test
+    public void testFramesInSameBuffer() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, publishFrame("a", "first".getBytes(StandardCharsets.UTF_8)));
+        write(out, publishFrame("b", "second".getBytes(StandardCharsets.UTF_8)));
+        byte[] data = out.toByteArray();
+        List<MqttPublishMessage> messages = decode(ByteBuffer.allocate(64), data, data.length);
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals("first", new String(messages.get(0).getPayload().getPayload(), StandardCharsets.UTF_8));
+        MqttPublishPayload payload = messages.get(1).getPayload();
+        Assert.assertEquals("second", StandardCharsets.UTF_8.decode(payload.getPayloadBuffer()).toString());
+
+        //释放后不可再读取负载
+        payload.release();
+        try {
+            payload.getPayloadBuffer();
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test
+    public void testReleaseOnClose() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(64);
+        byte[] frame = publishFrame("large", newPayload(300));
+        Assert.assertTrue(decode(readBuffer, Arrays.copyOf(frame, 100), 50).isEmpty());
+        //连接关闭时释放未接收完整的报文，可重复调用
+        MqttProtocol.release(session);
+        MqttProtocol.release(session);
+
+        readBuffer.clear();
+        List<MqttPublishMessage> messages = decode(readBuffer, publishFrame("next", "hello".getBytes(StandardCharsets.UTF_8)), 64);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals("next", messages.get(0).getVariableHeader().getTopicName());
+    }
+
+    /**
+     * 模拟读取过程，每次最多向读缓冲区写入chunk字节
+     */
+    private List<MqttPublishMessage> decode(ByteBuffer readBuffer, byte[] data, int chunk) {
+        List<MqttPublishMessage> messages = new ArrayList<>();
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(Math.min(chunk, readBuffer.remaining()), data.length - offset);
+            readBuffer.put(data, offset, length);
+            offset += length;
+            readBuffer.flip();
+            MqttMessage message;
+            while ((message = protocol.decode(readBuffer, session)) != null) {
+                messages.add((MqttPublishMessage) message);
+            }
+            readBuffer.compact();
+        }
+        return messages;
+    }
+
+    private static byte[] publishFrame(String topic, byte[] payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x30);
+        int remainingLength = 2 + topicBytes.length + payload.length;
+        do {
+            int digit = remainingLength % 128;
+            remainingLength /= 128;
+            out.write(remainingLength > 0 ? digit | 0x80 : digit);
+        } while (remainingLength > 0);
+        out.write(topicBytes.length >> 8);
+        out.write(topicBytes.length & 0xFF);
+        write(out, topicBytes);
+        write(out, payload);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] newPayload(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) i;
+        }
+        return payload;
+    }
+
+    private static AioSession newSession() {
+        AioSession session = new AioSession() {
+            @Override
+            public WriteBuffer writeBuffer() {
+                return null;
+            }
+
+            @Override
+            public ByteBuffer readBuffer() {
+                return null;
+            }
+
+            @Override
+            public void awaitRead() {
+            }
+
+            @Override
+            public void signalRead() {
+            }
+
+            @Override
+            public void close(boolean immediate) {
+            }
+
+            @Override
+            public InetSocketAddress getLocalAddress() {
+                return null;
+            }
+
+            @Override
+            public InetSocketAddress getRemoteAddress() {
+                return null;
+            }
+        };
+        Attachment attachment = new Attachment();
+        attachment.put(MqttProtocol.MQTT_VERSION_ATTACH_KEY, MqttVersion.MQTT_3_1_1);
+        session.setAttachment(attachment);
+        return session;
+    }
+}
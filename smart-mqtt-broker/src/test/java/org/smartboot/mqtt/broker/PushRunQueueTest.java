@@ -0,0 +1,49 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public class PushRunQueueTest {
+
+    @Test
+    public void testOverflowStrategies() {
+        for (String strategy : new String[]{BrokerConfigure.PUSH_OVERFLOW_COALESCE, BrokerConfigure.PUSH_OVERFLOW_GROW, BrokerConfigure.PUSH_OVERFLOW_SCAN}) {
+            List<BrokerTopic> topics = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                topics.add(new BrokerTopic("topic" + i));
+            }
+            PushMetrics metrics = new PushMetrics();
+            PushRunQueue queue = new PushRunQueue(PushScheduler.LANE_QOS0, 4, strategy, metrics, topics, topic -> true);
+            int overflow = 0;
+            for (BrokerTopic topic : topics) {
+                if (queue.offer(topic)) {
+                    overflow++;
+                }
+            }
+            Assert.assertEquals(strategy, 6, overflow);
+            Assert.assertEquals(strategy, 6, metrics.getOverflowCount());
+            Assert.assertFalse(queue.isEmpty());
+
+            Set<BrokerTopic> polled = new HashSet<>();
+            BrokerTopic topic;
+            while ((topic = queue.poll()) != null) {
+                Assert.assertTrue(strategy, polled.add(topic));
+            }
+            Assert.assertEquals(strategy, 10, polled.size());
+            Assert.assertEquals(strategy, 6, metrics.getOverflowRecoveredCount());
+            Assert.assertTrue(strategy, queue.isEmpty());
+            //环形数组已释放槽位，可继续写入
+            Assert.assertFalse(strategy, queue.offer(topics.get(0)));
+            Assert.assertSame(strategy, topics.get(0), queue.poll());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public class SlowConsumerMonitorTest {
+
+    @Test
+    public void testDisconnectStalledSubscriber() throws InterruptedException {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        ConcurrentMap<String, BrokerTopic> topicMap = new ConcurrentHashMap<>();
+        BrokerTopic topic = new BrokerTopic("slow");
+        topic.setSlowConsumerPolicy(new SlowConsumerPolicy(SlowConsumerPolicy.DISCONNECT, 10));
+        topicMap.put(topic.getTopic(), topic);
+        brokerContext.getProviders().getPersistenceProvider().doSave(MqttMessageBuilders.publish().topicName("slow").qos(MqttQoS.AT_LEAST_ONCE).payload(new byte[1]).build());
+
+        TestSession parkedSession = new TestSession(brokerContext);
+        TopicSubscriber parked = new TopicSubscriber(topic, parkedSession, MqttQoS.AT_LEAST_ONCE, 0, 0);
+        parked.setParked(true);
+        topic.getSubscribers().put(parkedSession, parked);
+        TestSession activeSession = new TestSession(brokerContext);
+        topic.getSubscribers().put(activeSession, new TopicSubscriber(topic, activeSession, MqttQoS.AT_LEAST_ONCE, 0, 0));
+        Thread.sleep(50);
+
+        //仅暂停推送的订阅者由定期检查执行disconnect策略
+        new SlowConsumerMonitor(brokerContext, topicMap).checkStalledSubscribers();
+        Assert.assertTrue(parkedSession.disconnected);
+        Assert.assertFalse(activeSession.disconnected);
+        Assert.assertEquals(1, parked.getLag());
+        Assert.assertEquals(1, brokerContext.getPushMetrics().getSlowConsumerDisconnectCount());
+    }
+
+    private static class TestSession extends MqttSession {
+        private boolean disconnected;
+
+        TestSession(BrokerContext brokerContext) {
+            super(brokerContext, null, null, null);
+        }
+
+        @Override
+        public synchronized void disconnect() {
+            disconnected = true;
+        }
+    }
+}
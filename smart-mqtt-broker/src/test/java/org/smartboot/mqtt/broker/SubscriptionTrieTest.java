@@ -0,0 +1,76 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public class SubscriptionTrieTest {
+    private final BrokerContextImpl brokerContext = new BrokerContextImpl();
+
+    @Test
+    public void testMatch() {
+        String[] filters = {"#", "/#", "+/#", "/+/b/+", "/+", "+/+", "/a/b/c", "a/b/c", "/a/#", "/a/b/+/d"};
+        SubscriptionTrie trie = new SubscriptionTrie();
+        for (String filter : filters) {
+            trie.subscribe(new TopicToken(filter), new MqttSession(brokerContext, null, null, null), MqttQoS.AT_MOST_ONCE);
+        }
+
+        Assert.assertEquals(set("#", "/#", "+/#", "/+", "+/+", "/a/#"), match(trie, "/a"));
+        Assert.assertEquals(set("#", "/#", "+/#", "/+/b/+", "/a/b/c", "/a/#"), match(trie, "/a/b/c"));
+        Assert.assertEquals(set("#", "+/#", "+/+"), match(trie, "a/b"));
+        Assert.assertEquals(set("#", "+/#", "a/b/c"), match(trie, "a/b/c"));
+        Assert.assertEquals(set("#", "/#", "+/#", "/a/#"), match(trie, "/a/b"));
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        SubscriptionTrie trie = new SubscriptionTrie();
+        MqttSession session1 = new MqttSession(brokerContext, null, null, null);
+        MqttSession session2 = new MqttSession(brokerContext, null, null, null);
+        trie.subscribe(new TopicToken("a/+/c"), session1, MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(new TopicToken("a/+/c"), session2, MqttQoS.AT_MOST_ONCE);
+        //重复订阅更新QoS
+        trie.subscribe(new TopicToken("a/+/c"), session2, MqttQoS.AT_LEAST_ONCE);
+        trie.subscribe(new TopicToken("a/#"), session1, MqttQoS.AT_MOST_ONCE);
+
+        Set<MqttQoS> qos = new HashSet<>();
+        trie.match(new TopicToken("a/b/c"), (session, topicFilterToken, mqttQoS) -> {
+            if (session == session2) {
+                qos.add(mqttQoS);
+            }
+        });
+        Assert.assertEquals(set(MqttQoS.AT_LEAST_ONCE), qos);
+
+        trie.unsubscribe(new TopicToken("a/+/c"), session1);
+        Assert.assertEquals(set("a/+/c", "a/#"), match(trie, "a/b/c"));
+        trie.unsubscribe(new TopicToken("a/+/c"), session2);
+        Assert.assertEquals(set("a/#"), match(trie, "a/b/c"));
+        //未订阅的主题过滤器
+        trie.unsubscribe(new TopicToken("a/+/d"), session2);
+        trie.unsubscribe(new TopicToken("a/#"), session1);
+        Assert.assertTrue(trie.isEmpty());
+    }
+
+    private Set<String> match(SubscriptionTrie trie, String topic) {
+        Set<String> filters = new HashSet<>();
+        trie.match(new TopicToken(topic), (session, topicFilterToken, mqttQoS) -> filters.add(topicFilterToken.getTopicFilter()));
+        return filters;
+    }
+
+    @SafeVarargs
+    private static <T> Set<T> set(T... values) {
+        Set<T> set = new HashSet<>();
+        for (T value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}
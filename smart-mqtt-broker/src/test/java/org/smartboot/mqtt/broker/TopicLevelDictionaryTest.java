@@ -0,0 +1,63 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.TopicLevelDictionary;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public class TopicLevelDictionaryTest {
+
+    @Test
+    public void testShareLevel() {
+        TopicToken topic = new TopicToken("dict/share/level");
+        TopicToken topicFilter = new TopicToken("dict/+/level");
+        Assert.assertSame(topic.getNode(0), topicFilter.getNode(0));
+        Assert.assertSame(topic.getNode(2), topicFilter.getNode(2));
+        Assert.assertSame(TopicLevelDictionary.SINGLE_LEVEL_WILDCARD, topicFilter.getNode(1));
+        Assert.assertSame(topic.getNode(1), new TopicToken("x/share").getNode(1));
+        Assert.assertEquals("level", topic.getNextNode().getNextNode().getNode());
+        Assert.assertEquals(3, topic.getLevelCount());
+    }
+
+    @Test
+    public void testLookup() {
+        TopicToken topic = TopicToken.lookup("dict/lookup-" + System.nanoTime() + "/end");
+        Assert.assertNull(TopicLevelDictionary.lookup(topic.getNode(1)));
+        Assert.assertEquals("end", topic.getNode(2));
+        //未写入字典的层级仍可参与匹配
+        Assert.assertTrue(TopicTokenUtil.match(topic, new TopicToken("dict/+/end")));
+        Assert.assertTrue(TopicTokenUtil.match(topic, new TopicToken("dict/#")));
+        Assert.assertFalse(TopicTokenUtil.match(topic, new TopicToken("dict/lookup/end")));
+        Assert.assertTrue(TopicTokenUtil.match(topic, new TopicToken(topic.getTopicFilter())));
+    }
+
+    @Test
+    public void testReleaseUnusedLevel() throws InterruptedException {
+        int count = 10000;
+        List<TopicToken> topics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            topics.add(new TopicToken("reply/" + i + "-" + System.nanoTime()));
+        }
+        TopicToken keep = topics.get(0);
+        int size = TopicLevelDictionary.size();
+        Assert.assertTrue(size >= count);
+        //不再被引用的层级随GC从字典中清除
+        topics.clear();
+        for (int i = 0; i < 20 && TopicLevelDictionary.size() > size - count + 1; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(TopicLevelDictionary.size() <= size - count + 1);
+        //仍被引用的层级保留原实例
+        Assert.assertSame(keep.getNode(1), TopicLevelDictionary.lookup(keep.getNode(1)));
+        Assert.assertSame(keep.getNode(0), new TopicToken("reply").getNode());
+    }
+}
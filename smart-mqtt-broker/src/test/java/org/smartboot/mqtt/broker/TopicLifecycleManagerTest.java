@@ -0,0 +1,105 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.broker.eventbus.ServerEventType;
+import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.broker.provider.impl.session.SessionState;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/12
+ */
+public class TopicLifecycleManagerTest {
+
+    @Test
+    public void testEvictIdleTopics() throws InterruptedException {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        brokerContext.getBrokerConfigure().setTopicIdleTimeout(50);
+        List<String> removedTopics = new ArrayList<>();
+        brokerContext.getEventBus().subscribe(ServerEventType.TOPIC_REMOVE, (eventType, topic) -> removedTopics.add(topic.getTopic()));
+
+        ConcurrentMap<String, BrokerTopic> topicMap = new ConcurrentHashMap<>();
+        for (String topic : new String[]{"idle", "retain", "offline/a"}) {
+            topicMap.put(topic, new BrokerTopic(topic));
+        }
+        brokerContext.getProviders().getPersistenceProvider().doSave(MqttMessageBuilders.publish().topicName("idle").qos(MqttQoS.AT_MOST_ONCE).payload(new byte[1]).build());
+        brokerContext.getProviders().getRetainMessageProvider().save(MqttMessageBuilders.publish().topicName("retain").qos(MqttQoS.AT_MOST_ONCE).retained(true).payload(new byte[1]).build());
+        SessionState sessionState = new SessionState();
+        sessionState.getSubscribers().put("offline/#", MqttQoS.AT_LEAST_ONCE);
+        brokerContext.getProviders().getSessionStateProvider().store("client", sessionState);
+        Thread.sleep(100);
+        topicMap.put("active", new BrokerTopic("active"));
+
+        new TopicLifecycleManager(brokerContext, topicMap).evictIdleTopics();
+        Assert.assertEquals(1, removedTopics.size());
+        Assert.assertEquals("idle", removedTopics.get(0));
+        Assert.assertFalse(topicMap.containsKey("idle"));
+        Assert.assertEquals(-1, brokerContext.getProviders().getPersistenceProvider().getLatestOffset("idle"));
+        Assert.assertEquals(3, topicMap.size());
+    }
+
+    @Test
+    public void testRecreateDuringEviction() throws InterruptedException {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        brokerContext.getBrokerConfigure().setTopicIdleTimeout(50);
+        brokerContext.getOrCreateTopic("idle");
+        PersistenceProvider persistenceProvider = brokerContext.getProviders().getPersistenceProvider();
+        persistenceProvider.doSave(MqttMessageBuilders.publish().topicName("idle").qos(MqttQoS.AT_MOST_ONCE).payload(new byte[1]).build());
+        long[] consumerOffset = new long[1];
+        Thread subscribeThread = new Thread(() -> {
+            brokerContext.getOrCreateTopic("idle");
+            consumerOffset[0] = persistenceProvider.getLatestOffset("idle") + 1;
+        });
+        //删除消息期间重建Topic并订阅
+        brokerContext.getProviders().setPersistenceProvider(new PersistenceProvider() {
+            @Override
+            public void doSave(MqttPublishMessage message) {
+                persistenceProvider.doSave(message);
+            }
+
+            @Override
+            public void delete(String topic) {
+                subscribeThread.start();
+                try {
+                    subscribeThread.join(100);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                persistenceProvider.delete(topic);
+            }
+
+            @Override
+            public PersistenceMessage get(String topic, long startOffset) {
+                return persistenceProvider.get(topic, startOffset);
+            }
+
+            @Override
+            public long getOldestOffset(String topic) {
+                return persistenceProvider.getOldestOffset(topic);
+            }
+
+            @Override
+            public long getLatestOffset(String topic) {
+                return persistenceProvider.getLatestOffset(topic);
+            }
+        });
+        Thread.sleep(100);
+
+        new TopicLifecycleManager(brokerContext, brokerContext.topicMap).evictIdleTopics();
+        subscribeThread.join();
+        Assert.assertFalse(brokerContext.getOrCreateTopic("idle").isDestroyed());
+        //重建后的订阅者可消费新消息
+        persistenceProvider.doSave(MqttMessageBuilders.publish().topicName("idle").qos(MqttQoS.AT_MOST_ONCE).payload(new byte[1]).build());
+        Assert.assertNotNull(persistenceProvider.get("idle", consumerOffset[0]));
+    }
+}
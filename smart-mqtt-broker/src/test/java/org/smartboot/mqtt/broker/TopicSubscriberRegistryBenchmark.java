@@ -0,0 +1,66 @@
+package org.smartboot.mqtt.broker;
+
+import org.smartboot.mqtt.common.enums.MqttQoS;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对比ConcurrentHashMap流式过滤与订阅者数组遍历的耗时，直接运行main方法。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public class TopicSubscriberRegistryBenchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURE_ROUNDS = 1000;
+    private static volatile long blackHole;
+
+    public static void main(String[] args) {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        for (int size : new int[]{1000, 10000, 100000}) {
+            BrokerTopic topic = new BrokerTopic("benchmark");
+            Map<MqttSession, TopicSubscriber> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < size; i++) {
+                MqttSession session = new MqttSession(brokerContext, null, null, null);
+                TopicSubscriber subscriber = new TopicSubscriber(topic, session, MqttQoS.AT_MOST_ONCE, 0, 0);
+                subscriber.setReady(true);
+                map.put(session, subscriber);
+                topic.getSubscribers().put(session, subscriber);
+            }
+            int rounds = Math.max(10, MEASURE_ROUNDS * 1000 / size);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                scanMap(map.values(), i);
+                scanArray(topic.getSubscribers(), i);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                scanMap(map.values(), i);
+            }
+            long mapCost = (System.nanoTime() - start) / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                scanArray(topic.getSubscribers(), i);
+            }
+            long arrayCost = (System.nanoTime() - start) / rounds;
+            System.out.printf("subscribers: %-7d ConcurrentHashMap stream: %,10d ns/scan  array: %,10d ns/scan%n", size, mapCost, arrayCost);
+        }
+    }
+
+    private static void scanMap(Collection<TopicSubscriber> subscribers, int version) {
+        blackHole += subscribers.stream().filter(subscriber -> subscriber.isReady() && subscriber.getPushVersion() != version).count();
+    }
+
+    private static void scanArray(TopicSubscriberRegistry registry, int version) {
+        long count = 0;
+        TopicSubscriberRegistry.Snapshot snapshot = registry.snapshot(PushScheduler.LANE_QOS0);
+        for (int i = 0; i < snapshot.size(); i++) {
+            TopicSubscriber subscriber = snapshot.get(i);
+            if (subscriber.isReady() && subscriber.getPushVersion() != version) {
+                count++;
+            }
+        }
+        blackHole += count;
+    }
+}
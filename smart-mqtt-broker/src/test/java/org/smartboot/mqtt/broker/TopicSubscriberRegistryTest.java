@@ -0,0 +1,96 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/16
+ */
+public class TopicSubscriberRegistryTest {
+
+    @Test
+    public void testSwapRemove() {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        BrokerTopic topic = new BrokerTopic("test");
+        TopicSubscriberRegistry registry = topic.getSubscribers();
+        List<TopicSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MqttSession session = new MqttSession(brokerContext, null, null, null);
+            TopicSubscriber subscriber = new TopicSubscriber(topic, session, MqttQoS.AT_MOST_ONCE, 0, 0);
+            Assert.assertNull(registry.put(session, subscriber));
+            subscribers.add(subscriber);
+        }
+        TopicSubscriberRegistry.Snapshot snapshot = registry.snapshot(PushScheduler.LANE_QOS0);
+
+        //删除中间的订阅者，末尾订阅者填补其位置
+        Assert.assertSame(subscribers.get(1), registry.remove(subscribers.get(1).getMqttSession()));
+        Assert.assertEquals(4, registry.size());
+        Assert.assertSame(subscribers.get(4), registry.snapshot(PushScheduler.LANE_QOS0).get(1));
+        Assert.assertEquals(1, subscribers.get(4).getRegistryIndex());
+        Assert.assertNull(registry.get(subscribers.get(1).getMqttSession()));
+        Assert.assertNull(registry.remove(subscribers.get(1).getMqttSession()));
+        //已获取的快照不受影响
+        Assert.assertEquals(5, snapshot.size());
+        Assert.assertSame(subscribers.get(1), snapshot.get(1));
+
+        //替换已存在的订阅
+        MqttSession session = subscribers.get(2).getMqttSession();
+        TopicSubscriber replace = new TopicSubscriber(topic, session, MqttQoS.AT_MOST_ONCE, 0, 0);
+        Assert.assertSame(subscribers.get(2), registry.put(session, replace));
+        Assert.assertEquals(4, registry.size());
+        Assert.assertSame(replace, registry.snapshot(PushScheduler.LANE_QOS0).get(2));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(subscribers.get(0), subscribers.get(4), replace, subscribers.get(3))), new HashSet<>(toList(registry.snapshot(PushScheduler.LANE_QOS0))));
+
+        //Qos变更后迁移至另一推送通道
+        session = subscribers.get(0).getMqttSession();
+        TopicSubscriber ack = new TopicSubscriber(topic, session, MqttQoS.AT_LEAST_ONCE, 0, 0);
+        Assert.assertSame(subscribers.get(0), registry.put(session, ack));
+        Assert.assertEquals(4, registry.size());
+        Assert.assertEquals(3, registry.snapshot(PushScheduler.LANE_QOS0).size());
+        Assert.assertSame(subscribers.get(3), registry.snapshot(PushScheduler.LANE_QOS0).get(0));
+        Assert.assertEquals(Arrays.asList(ack), toList(registry.snapshot(PushScheduler.LANE_ACK)));
+
+        for (int lane = 0; lane < PushScheduler.LANE_COUNT; lane++) {
+            for (TopicSubscriber subscriber : toList(registry.snapshot(lane))) {
+                Assert.assertSame(subscriber, registry.remove(subscriber.getMqttSession()));
+            }
+        }
+        Assert.assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void testAppend() {
+        BrokerContextImpl brokerContext = new BrokerContextImpl();
+        BrokerTopic topic = new BrokerTopic("test");
+        TopicSubscriberRegistry registry = topic.getSubscribers();
+        List<TopicSubscriber> subscribers = new ArrayList<>();
+        List<TopicSubscriberRegistry.Snapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            MqttSession session = new MqttSession(brokerContext, null, null, null);
+            TopicSubscriber subscriber = new TopicSubscriber(topic, session, MqttQoS.AT_MOST_ONCE, 0, 0);
+            registry.put(session, subscriber);
+            subscribers.add(subscriber);
+            snapshots.add(registry.snapshot(PushScheduler.LANE_QOS0));
+        }
+        //扩容后新增的订阅者写入快照长度之外，已获取的快照保持不变
+        for (int i = 0; i < snapshots.size(); i++) {
+            Assert.assertEquals(subscribers.subList(0, i + 1), toList(snapshots.get(i)));
+        }
+        Assert.assertEquals(100, registry.size());
+    }
+
+    private static List<TopicSubscriber> toList(TopicSubscriberRegistry.Snapshot snapshot) {
+        List<TopicSubscriber> list = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            list.add(snapshot.get(i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,97 @@
+package org.smartboot.mqtt.broker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.util.TopicTokenUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public class TopicTreeTest {
+
+    @Test
+    public void testMatch() {
+        String[] topics = {"/a", "/a/b", "/a/b/c", "a", "a/b", "a/b/c", "a/c/c", "b/b/c"};
+        String[] filters = {"#", "/#", "+/#", "/+/b/+", "/+", "+/+", "a/#", "a/+/c", "+/b/c", "a/b/c", "a/b/c/d", "c/#"};
+        TopicTree tree = new TopicTree();
+        List<BrokerTopic> brokerTopics = new ArrayList<>();
+        for (String topic : topics) {
+            BrokerTopic brokerTopic = new BrokerTopic(topic);
+            brokerTopics.add(brokerTopic);
+            tree.add(brokerTopic);
+        }
+        //与逐一匹配的结果一致
+        for (String filter : filters) {
+            TopicToken topicToken = new TopicToken(filter);
+            Set<String> expect = new HashSet<>();
+            brokerTopics.stream().filter(topic -> TopicTokenUtil.match(topic.getTopicToken(), topicToken)).forEach(topic -> expect.add(topic.getTopic()));
+            Assert.assertEquals(filter, expect, match(tree, filter));
+        }
+
+        for (BrokerTopic topic : brokerTopics) {
+            tree.remove(topic);
+        }
+        Assert.assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void testReplace() {
+        TopicTree tree = new TopicTree();
+        BrokerTopic old = new BrokerTopic("a/b");
+        tree.add(old);
+        tree.add(new BrokerTopic("a/b/c"));
+        //同名Topic重建后，旧Topic的移除不影响新Topic
+        BrokerTopic topic = new BrokerTopic("a/b");
+        tree.add(topic);
+        tree.remove(old);
+        Assert.assertEquals(setOf("a/b", "a/b/c"), match(tree, "a/#"));
+        tree.remove(topic);
+        Assert.assertEquals(setOf("a/b/c"), match(tree, "a/#"));
+    }
+
+    @Test
+    public void testConcurrentAddRemove() throws InterruptedException {
+        TopicTree tree = new TopicTree();
+        int threadNum = 4;
+        CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    BrokerTopic topic = new BrokerTopic("a/" + (j % 8) + "/" + (j % 3));
+                    tree.add(topic);
+                    tree.remove(topic);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        Assert.assertTrue(tree.isEmpty());
+        //并发新增与移除后，重新添加的Topic均可被查找到
+        BrokerTopic topic = new BrokerTopic("a/1/1");
+        tree.add(topic);
+        Assert.assertTrue(match(tree, "a/+/1").contains("a/1/1"));
+        tree.remove(topic);
+    }
+
+    private Set<String> match(TopicTree tree, String filter) {
+        Set<String> topics = new HashSet<>();
+        tree.match(new TopicToken(filter), topic -> topics.add(topic.getTopic()));
+        return topics;
+    }
+
+    private static Set<String> setOf(String... values) {
+        Set<String> set = new HashSet<>();
+        for (String value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}
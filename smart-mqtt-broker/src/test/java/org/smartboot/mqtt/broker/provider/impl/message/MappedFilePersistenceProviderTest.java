@@ -0,0 +1,137 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.smartboot.mqtt.broker.StoreConfigure;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/4
+ */
+public class MappedFilePersistenceProviderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoreConfigure newConfigure() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setType(StoreConfigure.TYPE_FILE);
+        configure.setDir(folder.getRoot().getAbsolutePath());
+        configure.setSegmentSize(1024);
+        configure.setIndexInterval(4);
+        configure.setMaxSegments(3);
+        return configure;
+    }
+
+    private MqttPublishMessage newMessage(String topic, String payload) {
+        return MqttMessageBuilders.publish().topicName(topic).qos(MqttQoS.AT_MOST_ONCE).payload(payload.getBytes(StandardCharsets.UTF_8)).build();
+    }
+
+    @Test
+    public void testSaveAndGet() {
+        MappedFilePersistenceProvider provider = new MappedFilePersistenceProvider(newConfigure());
+        Assert.assertEquals(-1, provider.getLatestOffset("/a/b"));
+        Assert.assertNull(provider.get("/a/b", 0));
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("/a/b", "hello" + i));
+        }
+        Assert.assertEquals(0, provider.getOldestOffset("/a/b"));
+        Assert.assertEquals(19, provider.getLatestOffset("/a/b"));
+        for (int i = 0; i < 20; i++) {
+            PersistenceMessage message = provider.get("/a/b", i);
+            Assert.assertEquals(i, message.getOffset());
+            Assert.assertEquals("/a/b", message.getTopic());
+            Assert.assertEquals("hello" + i, new String(message.getPayload(), StandardCharsets.UTF_8));
+        }
+        Assert.assertNull(provider.get("/a/b", 20));
+        provider.close();
+    }
+
+    @Test
+    public void testRollAndRecover() {
+        MappedFilePersistenceProvider provider = new MappedFilePersistenceProvider(newConfigure());
+        byte[] payload = new byte[200];
+        String content = new String(payload, StandardCharsets.UTF_8);
+        for (int i = 0; i < 100; i++) {
+            provider.doSave(newMessage("a/../b", content + i));
+        }
+        long oldest = provider.getOldestOffset("a/../b");
+        Assert.assertTrue(oldest > 0);
+        Assert.assertNull(provider.get("a/../b", oldest - 1));
+        Assert.assertEquals(99, provider.getLatestOffset("a/../b"));
+        provider.close();
+
+        //重启后恢复
+        provider = new MappedFilePersistenceProvider(newConfigure());
+        Assert.assertEquals(oldest, provider.getOldestOffset("a/../b"));
+        Assert.assertEquals(99, provider.getLatestOffset("a/../b"));
+        Assert.assertEquals(content + 97, new String(provider.get("a/../b", 97).getPayload(), StandardCharsets.UTF_8));
+        provider.doSave(newMessage("a/../b", "next"));
+        Assert.assertEquals("next", new String(provider.get("a/../b", 100).getPayload(), StandardCharsets.UTF_8));
+
+        provider.delete("a/../b");
+        Assert.assertEquals(-1, provider.getLatestOffset("a/../b"));
+        provider.close();
+    }
+
+    @Test
+    public void testRangeGet() {
+        MappedFilePersistenceProvider provider = new MappedFilePersistenceProvider(newConfigure());
+        String content = new String(new byte[100], StandardCharsets.UTF_8);
+        for (int i = 0; i < 30; i++) {
+            provider.doSave(newMessage("a", content + i));
+        }
+        long oldest = provider.getOldestOffset("a");
+        //跨segment读取，起始点位已被淘汰时从最早的消息开始
+        List<PersistenceMessage> messages = provider.get("a", 0, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(30 - oldest, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Assert.assertEquals(oldest + i, messages.get(i).getOffset());
+            Assert.assertEquals(content + (oldest + i), new String(messages.get(i).getPayload(), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(3, provider.get("a", 25, 3, Integer.MAX_VALUE).size());
+        Assert.assertEquals(1, provider.get("a", 25, 3, 1).size());
+        Assert.assertTrue(provider.get("a", 30, 3, Integer.MAX_VALUE).isEmpty());
+        Assert.assertTrue(provider.get("b", 0, 3, Integer.MAX_VALUE).isEmpty());
+        provider.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        StoreConfigure configure = newConfigure();
+        configure.setDurable(true);
+        configure.setGroupCommitInterval(10);
+        MappedFilePersistenceProvider provider = new MappedFilePersistenceProvider(configure);
+        CountDownLatch latch = new CountDownLatch(20);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("a", "hello" + i));
+            provider.commit(() -> {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+            });
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        //回调由组提交线程在刷盘后执行
+        Assert.assertEquals(Collections.singleton("store-group-commit"), threads);
+        provider.close();
+
+        //关闭后立即执行回调
+        AtomicBoolean executed = new AtomicBoolean();
+        provider.commit(() -> executed.set(true));
+        Assert.assertTrue(executed.get());
+    }
+}
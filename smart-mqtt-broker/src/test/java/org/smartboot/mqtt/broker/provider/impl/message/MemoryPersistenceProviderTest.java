@@ -0,0 +1,216 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.broker.StoreConfigure;
+import org.smartboot.mqtt.broker.provider.PersistenceProvider;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.enums.MqttMessageType;
+import org.smartboot.mqtt.common.message.MqttFixedHeader;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.payload.MqttPublishPayload;
+import org.smartboot.mqtt.common.message.payload.ReferenceCountedBuffer;
+import org.smartboot.mqtt.common.message.variable.MqttPublishVariableHeader;
+import org.smartboot.socket.buffer.BufferPagePool;
+import org.smartboot.socket.buffer.VirtualBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/6
+ */
+public class MemoryPersistenceProviderTest {
+
+    private MqttPublishMessage newMessage(String topic, int size) {
+        return MqttMessageBuilders.publish().topicName(topic).qos(MqttQoS.AT_MOST_ONCE).payload(new byte[size]).build();
+    }
+
+    @Test
+    public void testTopicCapacity() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(2);
+        StoreConfigure.TopicConfigure topicConfigure = new StoreConfigure.TopicConfigure();
+        topicConfigure.setPattern("telemetry/#");
+        topicConfigure.setCapacity(100);
+        configure.getTopics().add(topicConfigure);
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider(configure);
+        for (int i = 0; i < 100; i++) {
+            provider.doSave(newMessage("telemetry/a", 1));
+            provider.doSave(newMessage("device/a", 1));
+        }
+        Assert.assertEquals(0, provider.getOldestOffset("telemetry/a"));
+        Assert.assertEquals(0, provider.get("telemetry/a", 0).getOffset());
+        Assert.assertEquals(98, provider.getOldestOffset("device/a"));
+        Assert.assertNull(provider.get("device/a", 97));
+        Assert.assertEquals(99, provider.get("device/a", 99).getOffset());
+    }
+
+    @Test
+    public void testRangeGet() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(8);
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider(configure);
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("a", 10));
+        }
+        List<PersistenceMessage> messages = provider.get("a", 0, 5, Integer.MAX_VALUE);
+        Assert.assertEquals(5, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Assert.assertEquals(12 + i, messages.get(i).getOffset());
+        }
+        Assert.assertEquals(2, provider.get("a", 18, 5, Integer.MAX_VALUE).size());
+        Assert.assertEquals(2, provider.get("a", 14, 5, 11).size());
+        Assert.assertTrue(provider.get("a", 20, 5, Integer.MAX_VALUE).isEmpty());
+        Assert.assertTrue(provider.get("b", 0, 5, Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testDefaultRangeGet() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(8);
+        MemoryPersistenceProvider memoryProvider = new MemoryPersistenceProvider(configure);
+        //仅实现单条读取，批量读取使用接口默认实现
+        PersistenceProvider provider = new PersistenceProvider() {
+            @Override
+            public void doSave(MqttPublishMessage message) {
+                memoryProvider.doSave(message);
+            }
+
+            @Override
+            public void delete(String topic) {
+                memoryProvider.delete(topic);
+            }
+
+            @Override
+            public PersistenceMessage get(String topic, long startOffset) {
+                return memoryProvider.get(topic, startOffset);
+            }
+
+            @Override
+            public long getOldestOffset(String topic) {
+                return memoryProvider.getOldestOffset(topic);
+            }
+
+            @Override
+            public long getLatestOffset(String topic) {
+                return memoryProvider.getLatestOffset(topic);
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("a", 10));
+        }
+        //startOffset已被淘汰，从最早的消息开始
+        List<PersistenceMessage> messages = provider.get("a", 0, 5, Integer.MAX_VALUE);
+        Assert.assertEquals(5, messages.size());
+        Assert.assertEquals(12, messages.get(0).getOffset());
+        Assert.assertEquals(2, provider.get("a", 18, 5, Integer.MAX_VALUE).size());
+        Assert.assertTrue(provider.get("a", 20, 5, Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(16);
+        configure.setMemoryBudget(16 * 1024);
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider(configure);
+        for (int i = 0; i < 8; i++) {
+            provider.doSave(newMessage("a", 1024));
+        }
+        for (int i = 0; i < 8; i++) {
+            provider.doSave(newMessage("b", 1024));
+        }
+        Assert.assertTrue(provider.getMemoryBytes() <= configure.getMemoryBudget());
+        //最久未写入的Topic a被淘汰，仅保留最新一条
+        Assert.assertEquals(7, provider.getOldestOffset("a"));
+        Assert.assertNotNull(provider.get("a", 7));
+        Assert.assertEquals(0, provider.getOldestOffset("b"));
+        Assert.assertEquals(7, provider.getLatestOffset("b"));
+    }
+
+    @Test
+    public void testOffHeap() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(2);
+        configure.setOffHeap(true);
+        configure.setSlabSize(1024);
+        configure.setMaxOffHeapSize(2048);
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider(configure);
+        byte[] payload = "hello".getBytes();
+        provider.doSave(MqttMessageBuilders.publish().topicName("a").qos(MqttQoS.AT_MOST_ONCE).payload(payload).build());
+        PersistenceMessage message = provider.get("a", 0);
+        Assert.assertTrue(message instanceof ArenaPersistenceMessage);
+        Assert.assertTrue(message.retain());
+        byte[] heapPayload = message.getPayload();
+        Assert.assertArrayEquals(payload, heapPayload);
+        //推送给多个订阅者时共享同一份堆内拷贝
+        Assert.assertSame(heapPayload, message.getPayload());
+        Assert.assertFalse(message.getPayloadBuffer().hasArray());
+        message.release();
+
+        //超出容量被覆盖的消息不可再读取
+        for (int i = 0; i < 2; i++) {
+            provider.doSave(newMessage("a", 300));
+        }
+        Assert.assertFalse(message.retain());
+        Assert.assertNull(message.getPayload());
+
+        //超出堆外内存上限时退化为堆内存储
+        for (int i = 0; i < 16; i++) {
+            provider.doSave(newMessage("b" + i, 300));
+        }
+        Assert.assertFalse(provider.get("b15", 0) instanceof ArenaPersistenceMessage);
+        Assert.assertEquals(300, provider.get("b15", 0).getPayloadLength());
+    }
+
+    @Test
+    public void testSharedSlab() throws InterruptedException {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setCapacity(8);
+        configure.setOffHeap(true);
+        configure.setSlabSize(1024);
+        configure.setMaxOffHeapSize(2048);
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider(configure);
+        Thread thread = new Thread(() -> provider.doSave(newMessage("a", 300)));
+        thread.start();
+        thread.join();
+        Assert.assertTrue(provider.get("a", 0) instanceof ArenaPersistenceMessage);
+        //已停止写入的线程不持有slab，其剩余空间由其他线程继续分配
+        for (int i = 0; i < 6; i++) {
+            provider.doSave(newMessage("b", 300));
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(provider.get("b", i) instanceof ArenaPersistenceMessage);
+        }
+        Assert.assertFalse(provider.get("b", 5) instanceof ArenaPersistenceMessage);
+    }
+
+    @Test
+    public void testPooledPayload() {
+        BufferPagePool pagePool = new BufferPagePool(1024, 1, true);
+        VirtualBuffer virtualBuffer = pagePool.allocateBufferPage().allocate(5);
+        ByteBuffer data = virtualBuffer.buffer();
+        data.clear();
+        data.put("hello".getBytes(StandardCharsets.UTF_8)).flip();
+        ReferenceCountedBuffer pooledBuffer = new ReferenceCountedBuffer(virtualBuffer, data);
+        MqttFixedHeader fixedHeader = new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0);
+        MqttPublishMessage message = new MqttPublishMessage(fixedHeader, new MqttPublishVariableHeader(-1, "a", null), new MqttPublishPayload(pooledBuffer));
+
+        MemoryPersistenceProvider provider = new MemoryPersistenceProvider();
+        provider.doSave(message);
+        //解码方释放引用后，存储仍可读取
+        message.getPayload().release();
+        PersistenceMessage persistenceMessage = provider.get("a", 0);
+        Assert.assertEquals(5, persistenceMessage.getPayloadLength());
+        Assert.assertEquals("hello", new String(persistenceMessage.getPayload(), StandardCharsets.UTF_8));
+
+        //存储释放后归还池化内存
+        provider.delete("a");
+        Assert.assertFalse(pooledBuffer.retain());
+        Assert.assertNull(persistenceMessage.getPayload());
+        pagePool.release();
+    }
+}
@@ -0,0 +1,78 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.MqttWriter;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.enums.MqttVersion;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/10
+ */
+public class PersistenceMessageTest {
+
+    @Test
+    public void testEncodedHeader() throws IOException {
+        PersistenceMessage message = new PersistenceMessage("a/b/c", "hello".getBytes(StandardCharsets.UTF_8), false, 0, System.currentTimeMillis());
+        for (MqttVersion version : MqttVersion.values()) {
+            for (MqttQoS qos : new MqttQoS[]{MqttQoS.AT_MOST_ONCE, MqttQoS.AT_LEAST_ONCE, MqttQoS.EXACTLY_ONCE}) {
+                for (boolean retain : new boolean[]{false, true}) {
+                    MqttMessageBuilders.PublishBuilder builder = MqttMessageBuilders.publish().topicName(message.getTopic()).qos(qos).retained(retain).payload(message.getPayload());
+                    if (qos != MqttQoS.AT_MOST_ONCE) {
+                        builder.packetId(1234);
+                    }
+                    if (version == MqttVersion.MQTT_5) {
+                        builder.publishProperties(new PublishProperties());
+                    }
+                    MqttPublishMessage expect = builder.build();
+                    MqttPublishMessage actual = builder.encodedHeader(message.getEncodedHeader(version, qos, retain)).build();
+                    Assert.assertSame(message.getEncodedHeader(version, qos, retain), message.getEncodedHeader(version, qos, retain));
+                    //MQTT 3.x各版本共用缓存的报头
+                    Assert.assertTrue(message.getEncodedHeader(version, qos, retain).isCompatible(version));
+                    Assert.assertArrayEquals(encode(expect, version), encode(actual, version));
+                }
+            }
+        }
+    }
+
+    private byte[] encode(MqttPublishMessage message, MqttVersion version) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.setVersion(version);
+        message.write(new MqttWriter() {
+            @Override
+            public void writeByte(byte b) {
+                out.write(b);
+            }
+
+            @Override
+            public void writeShort(short data) {
+                out.write(data >>> 8);
+                out.write(data);
+            }
+
+            @Override
+            public void writeInt(int data) {
+                writeShort((short) (data >>> 16));
+                writeShort((short) data);
+            }
+
+            @Override
+            public void write(byte[] data) {
+                out.write(data, 0, data.length);
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        return out.toByteArray();
+    }
+}
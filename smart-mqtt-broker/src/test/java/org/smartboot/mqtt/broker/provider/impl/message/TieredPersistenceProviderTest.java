@@ -0,0 +1,133 @@
+package org.smartboot.mqtt.broker.provider.impl.message;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.smartboot.mqtt.broker.SlowConsumerPolicy;
+import org.smartboot.mqtt.broker.StoreConfigure;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/11
+ */
+public class TieredPersistenceProviderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoreConfigure newConfigure() {
+        StoreConfigure configure = new StoreConfigure();
+        configure.setType(StoreConfigure.TYPE_TIERED);
+        configure.setDir(folder.getRoot().getAbsolutePath());
+        configure.setCapacity(4);
+        return configure;
+    }
+
+    private MqttPublishMessage newMessage(String topic, String payload) {
+        return MqttMessageBuilders.publish().topicName(topic).qos(MqttQoS.AT_MOST_ONCE).payload(payload.getBytes(StandardCharsets.UTF_8)).build();
+    }
+
+    @Test
+    public void testSpill() {
+        TieredPersistenceProvider provider = new TieredPersistenceProvider(newConfigure());
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("a", "hello" + i));
+        }
+        Assert.assertEquals(0, provider.getOldestOffset("a"));
+        Assert.assertEquals(19, provider.getLatestOffset("a"));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("hello" + i, new String(provider.get("a", i).getPayload(), StandardCharsets.UTF_8));
+        }
+        //落后的订阅者从文件读取，追上后从内存读取
+        List<PersistenceMessage> messages = provider.get("a", 0, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(16, messages.size());
+        Assert.assertEquals(15, messages.get(15).getOffset());
+        messages = provider.get("a", 16, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(4, messages.size());
+        Assert.assertEquals(16, messages.get(0).getOffset());
+        provider.close();
+
+        //重启后接续文件中的点位
+        provider = new TieredPersistenceProvider(newConfigure());
+        Assert.assertEquals(15, provider.getLatestOffset("a"));
+        provider.doSave(newMessage("a", "next"));
+        Assert.assertEquals(16, provider.getLatestOffset("a"));
+        Assert.assertEquals("next", new String(provider.get("a", 16).getPayload(), StandardCharsets.UTF_8));
+        Assert.assertEquals("hello15", new String(provider.get("a", 15).getPayload(), StandardCharsets.UTF_8));
+        provider.close();
+    }
+
+    @Test
+    public void testEvictByMemoryBudget() {
+        StoreConfigure configure = newConfigure();
+        configure.setCapacity(16);
+        configure.setMemoryBudget(8 * 1024);
+        TieredPersistenceProvider provider = new TieredPersistenceProvider(configure);
+        for (int i = 0; i < 16; i++) {
+            provider.doSave(newMessage("a", new String(new byte[1024], StandardCharsets.UTF_8)));
+        }
+        Assert.assertTrue(provider.getMemoryBytes() <= configure.getMemoryBudget());
+        Assert.assertEquals(0, provider.getOldestOffset("a"));
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(i, provider.get("a", i).getOffset());
+        }
+        provider.close();
+    }
+
+    @Test
+    public void testDropPolicyNotSpill() {
+        StoreConfigure configure = newConfigure();
+        StoreConfigure.TopicConfigure topicConfigure = new StoreConfigure.TopicConfigure();
+        topicConfigure.setPattern("drop/#");
+        topicConfigure.setSlowConsumerPolicy(SlowConsumerPolicy.DROP);
+        configure.getTopics().add(topicConfigure);
+        TieredPersistenceProvider provider = new TieredPersistenceProvider(configure);
+        for (int i = 0; i < 20; i++) {
+            provider.doSave(newMessage("drop/a", "hello" + i));
+            provider.doSave(newMessage("spill/a", "hello" + i));
+        }
+        Assert.assertEquals(0, provider.getOldestOffset("spill/a"));
+        //移出内存的消息未转存，落后的订阅者跳至最早可用的消息
+        Assert.assertEquals(16, provider.getOldestOffset("drop/a"));
+        List<PersistenceMessage> messages = provider.get("drop/a", 0, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(4, messages.size());
+        Assert.assertEquals(16, messages.get(0).getOffset());
+        provider.close();
+    }
+
+    @Test
+    public void testConcurrentReadAcrossSpill() throws InterruptedException {
+        TieredPersistenceProvider provider = new TieredPersistenceProvider(newConfigure());
+        int count = 20000;
+        AtomicReference<String> error = new AtomicReference<>();
+        //读取方紧跟写入方，被移出内存的消息须已可从文件读取
+        Thread reader = new Thread(() -> {
+            long next = 0;
+            while (next < count && error.get() == null) {
+                List<PersistenceMessage> messages = provider.get("a", next, 16, Integer.MAX_VALUE);
+                for (PersistenceMessage message : messages) {
+                    if (message.getOffset() != next || !("hello" + next).equals(new String(message.getPayload(), StandardCharsets.UTF_8))) {
+                        error.set("expect offset:" + next + " but got:" + message.getOffset());
+                        return;
+                    }
+                    next++;
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            provider.doSave(newMessage("a", "hello" + i));
+        }
+        reader.join(30000);
+        Assert.assertFalse(reader.isAlive());
+        Assert.assertNull(error.get(), error.get());
+        provider.close();
+    }
+}
@@ -0,0 +1,87 @@
+package org.smartboot.mqtt.broker.provider.impl.retain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartboot.mqtt.broker.provider.Providers;
+import org.smartboot.mqtt.broker.provider.RetainMessageProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.MemoryPersistenceProvider;
+import org.smartboot.mqtt.broker.provider.impl.message.PersistenceMessage;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.TopicToken;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/13
+ */
+public class MemoryRetainMessageProviderTest {
+
+    private MqttPublishMessage newMessage(String topic, String payload) {
+        return MqttMessageBuilders.publish().topicName(topic).qos(MqttQoS.AT_LEAST_ONCE).retained(true).payload(payload.getBytes(StandardCharsets.UTF_8)).build();
+    }
+
+    private List<String> match(RetainMessageProvider provider, String topicFilter) {
+        List<String> topics = new ArrayList<>();
+        provider.forEach(new TopicToken(topicFilter), message -> topics.add(message.getTopic()));
+        Collections.sort(topics);
+        return topics;
+    }
+
+    @Test
+    public void testSaveAndGet() {
+        MemoryRetainMessageProvider provider = new MemoryRetainMessageProvider();
+        provider.save(newMessage("a/b", "1"));
+        PersistenceMessage first = provider.get("a/b");
+        provider.save(newMessage("a/b", "2"));
+        PersistenceMessage second = provider.get("a/b");
+        //只保留最新的一条
+        Assert.assertEquals("2", new String(second.getPayload(), StandardCharsets.UTF_8));
+        Assert.assertTrue(second.getOffset() > first.getOffset());
+        Assert.assertNull(provider.get("a"));
+        Assert.assertNull(provider.get("a/b/c"));
+
+        provider.delete("a/b");
+        Assert.assertNull(provider.get("a/b"));
+        Assert.assertTrue(match(provider, "#").isEmpty());
+    }
+
+    @Test
+    public void testWildcard() {
+        MemoryRetainMessageProvider provider = new MemoryRetainMessageProvider();
+        for (String topic : new String[]{"sport", "sport/tennis", "sport/tennis/player1", "sport/golf/player1", "/finance", "news"}) {
+            provider.save(newMessage(topic, topic));
+        }
+        Assert.assertEquals(6, match(provider, "#").size());
+        Assert.assertEquals(Arrays.asList("sport", "sport/golf/player1", "sport/tennis", "sport/tennis/player1"), match(provider, "sport/#"));
+        Assert.assertEquals(Arrays.asList("sport/golf/player1", "sport/tennis/player1"), match(provider, "sport/+/player1"));
+        Assert.assertEquals(Arrays.asList("news", "sport"), match(provider, "+"));
+        Assert.assertEquals(Arrays.asList("/finance", "sport/tennis"), match(provider, "+/+"));
+        Assert.assertEquals(Collections.singletonList("sport/tennis"), match(provider, "sport/tennis"));
+        Assert.assertTrue(match(provider, "sport/+/player2").isEmpty());
+    }
+
+    @Test
+    public void testPersistenceProviderAdapter() {
+        Providers providers = new Providers();
+        providers.setRetainMessageProvider(new MemoryPersistenceProvider());
+        RetainMessageProvider provider = providers.getRetainMessageProvider();
+        Assert.assertNull(provider.get("a/b"));
+        provider.save(newMessage("a/b", "1"));
+        provider.save(newMessage("a/b", "2"));
+        provider.save(newMessage("c", "3"));
+        Assert.assertEquals("2", new String(provider.get("a/b").getPayload(), StandardCharsets.UTF_8));
+        Assert.assertEquals(Collections.singletonList("a/b"), match(provider, "a/+"));
+        Assert.assertEquals(Arrays.asList("a/b", "c"), match(provider, "#"));
+
+        provider.delete("a/b");
+        Assert.assertNull(provider.get("a/b"));
+        Assert.assertEquals(Collections.singletonList("c"), match(provider, "#"));
+    }
+}
@@ -0,0 +1,161 @@
+package org.smartboot.mqtt.broker.provider.impl.session;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.smartboot.mqtt.common.AckMessage;
+import org.smartboot.mqtt.common.MqttMessageBuilders;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.MqttPubRecMessage;
+import org.smartboot.mqtt.common.message.MqttPubRelMessage;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.variable.MqttPubQosVariableHeader;
+import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
+import org.smartboot.mqtt.common.message.variable.properties.UserProperty;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/12
+ */
+public class FileSessionStateProviderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SessionState newSessionState() {
+        SessionState sessionState = new SessionState();
+        sessionState.getSubscribers().put("a/+", MqttQoS.AT_LEAST_ONCE);
+        sessionState.getSubscribers().put("b/#", MqttQoS.EXACTLY_ONCE);
+        PublishProperties properties = new PublishProperties();
+        properties.setContentType("text/plain");
+        properties.getUserProperties().add(new UserProperty("k", "v"));
+        MqttMessageBuilders.PublishBuilder builder = MqttMessageBuilders.publish().topicName("a/1").qos(MqttQoS.AT_LEAST_ONCE).retained(true).payload("hello".getBytes(StandardCharsets.UTF_8)).publishProperties(properties);
+        builder.packetId(1);
+        sessionState.getResponseConsumers().put(1, new AckMessage(builder.build(), message -> {
+        }));
+        sessionState.getResponseConsumers().put(2, new AckMessage(new MqttPubRelMessage(new MqttPubQosVariableHeader(2, null)), message -> {
+        }));
+        return sessionState;
+    }
+
+    @Test
+    public void testRecover() {
+        FileSessionStateProvider provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        provider.store("client/1", newSessionState());
+        //未落盘前读取待写状态
+        Assert.assertNotNull(provider.get("client/1").getResponseConsumers().get(1).getConsumer());
+        provider.close();
+
+        provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        SessionState sessionState = provider.get("client/1");
+        Assert.assertEquals(MqttQoS.AT_LEAST_ONCE, sessionState.getSubscribers().get("a/+"));
+        Assert.assertEquals(MqttQoS.EXACTLY_ONCE, sessionState.getSubscribers().get("b/#"));
+
+        MqttPublishMessage publishMessage = (MqttPublishMessage) sessionState.getResponseConsumers().get(1).getOriginalMessage();
+        Assert.assertNull(sessionState.getResponseConsumers().get(1).getConsumer());
+        Assert.assertEquals(1, publishMessage.getVariableHeader().getPacketId());
+        Assert.assertEquals("a/1", publishMessage.getVariableHeader().getTopicName());
+        Assert.assertEquals(MqttQoS.AT_LEAST_ONCE, publishMessage.getFixedHeader().getQosLevel());
+        Assert.assertTrue(publishMessage.getFixedHeader().isRetain());
+        Assert.assertEquals("hello", new String(publishMessage.getPayload().getPayload(), StandardCharsets.UTF_8));
+        Assert.assertEquals("text/plain", publishMessage.getVariableHeader().getProperties().getContentType());
+        Assert.assertEquals("v", publishMessage.getVariableHeader().getProperties().getUserProperties().get(0).getValue());
+
+        MqttPubRelMessage pubRelMessage = (MqttPubRelMessage) sessionState.getResponseConsumers().get(2).getOriginalMessage();
+        Assert.assertEquals(2, pubRelMessage.getVariableHeader().getPacketId());
+
+        Map<String, SessionState> states = new HashMap<>();
+        provider.forEach(states::put);
+        Assert.assertEquals(1, states.size());
+        Assert.assertTrue(states.containsKey("client/1"));
+        provider.close();
+    }
+
+    @Test
+    public void testRemove() {
+        FileSessionStateProvider provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        provider.store("c1", newSessionState());
+        provider.flush();
+        provider.remove("c1");
+        Assert.assertNull(provider.get("c1"));
+        provider.close();
+
+        provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        Assert.assertNull(provider.get("c1"));
+        provider.close();
+    }
+
+    @Test
+    public void testPubRec() {
+        FileSessionStateProvider provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        SessionState sessionState = newSessionState();
+        sessionState.getResponseConsumers().put(3, new AckMessage(new MqttPubRecMessage(new MqttPubQosVariableHeader(3, null)), message -> {
+        }));
+        provider.store("c1", sessionState);
+        provider.store("c2", newSessionState());
+        provider.flush();
+        provider.close();
+
+        provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        MqttPubRecMessage pubRecMessage = (MqttPubRecMessage) provider.get("c1").getResponseConsumers().get(3).getOriginalMessage();
+        Assert.assertEquals(3, pubRecMessage.getVariableHeader().getPacketId());
+        Assert.assertNotNull(provider.get("c2"));
+        provider.close();
+    }
+
+    @Test
+    public void testTopicFilterIndex() {
+        FileSessionStateProvider provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        provider.store("c1", newSessionState());
+        SessionState sessionState = new SessionState();
+        sessionState.getSubscribers().put("c/d", MqttQoS.AT_MOST_ONCE);
+        provider.store("c2", sessionState);
+        provider.close();
+
+        //重启后由会话文件构建索引，已移除的会话不计入
+        provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        provider.remove("c1");
+        Set<String> topicFilters = new HashSet<>();
+        provider.forEachTopicFilter(topicFilters::add);
+        Assert.assertEquals(1, topicFilters.size());
+        Assert.assertTrue(topicFilters.contains("c/d"));
+
+        provider.store("c1", newSessionState());
+        provider.remove("c2");
+        topicFilters.clear();
+        provider.forEachTopicFilter(topicFilters::add);
+        Assert.assertEquals(2, topicFilters.size());
+        Assert.assertTrue(topicFilters.contains("a/+"));
+        Assert.assertTrue(topicFilters.contains("b/#"));
+        provider.close();
+    }
+
+    @Test
+    public void testRetryFailedFlush() {
+        FileSessionStateProvider provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 60000);
+        //临时文件路径被目录占用，模拟落盘失败
+        File tempFile = new File(folder.getRoot(), "client.session.tmp");
+        Assert.assertTrue(tempFile.mkdir());
+        provider.store("client", newSessionState());
+        Assert.assertFalse(provider.flush());
+        Assert.assertNotNull(provider.get("client"));
+
+        Assert.assertTrue(tempFile.delete());
+        Assert.assertTrue(provider.flush());
+        //落盘间隔大于等待时长时close无需等待后台线程
+        long start = System.currentTimeMillis();
+        provider.close();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+        provider = new FileSessionStateProvider(folder.getRoot().getAbsolutePath(), 10);
+        Assert.assertEquals(MqttQoS.EXACTLY_ONCE, provider.get("client").getSubscribers().get("b/#"));
+        provider.close();
+    }
+}
@@ -68,7 +68,7 @@ public class PublishProcessor implements MqttProcessor<MqttPublishMessage> {
     }
 
     private static Subscribe matchWildcardsSubscribe(MqttClient mqttClient, String topicName) {
-        TopicToken publicTopicToken = new TopicToken(topicName);
+        TopicToken publicTopicToken = TopicToken.lookup(topicName);
         TopicToken matchToken = mqttClient.getWildcardsToken().stream().filter(topicToken -> TopicTokenUtil.match(publicTopicToken, topicToken)).findFirst().orElse(null);
         return matchToken != null ? mqttClient.getSubscribes().get(matchToken.getTopicFilter()) : null;
     }
@@ -3,13 +3,23 @@ package org.smartboot.mqtt.common;
 import org.smartboot.socket.transport.WriteBuffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author 三刀（zhengjunweimail@163.com）
  * @version V1.0 , 2022/12/2
  */
 public class DefaultMqttWriter implements MqttWriter {
+    /**
+     * 堆外数据分段拷贝至writeBuffer时使用的缓冲区大小
+     */
+    private static final int COPY_CHUNK_SIZE = 1024;
     private final WriteBuffer writeBuffer;
+    private byte[] copyChunk;
+    /**
+     * 累计写入writeBuffer的字节数，仅由持有会话锁的线程更新，推送线程及IO线程无锁读取
+     */
+    private volatile long writtenBytes;
 
     public DefaultMqttWriter(WriteBuffer writeBuffer) {
         this.writeBuffer = writeBuffer;
@@ -17,26 +27,65 @@ public class DefaultMqttWriter implements MqttWriter {
 
     @Override
     public void writeByte(byte b) {
+        writtenBytes++;
         writeBuffer.writeByte(b);
     }
 
     @Override
     public void writeShort(short data) throws IOException {
+        writtenBytes += 2;
         writeBuffer.writeShort(data);
     }
 
     @Override
     public void writeInt(int data) throws IOException {
+        writtenBytes += 4;
         writeBuffer.writeInt(data);
     }
 
     @Override
     public void write(byte[] data) throws IOException {
+        writtenBytes += data.length;
         writeBuffer.write(data);
     }
 
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        writtenBytes += length;
+        writeBuffer.write(data, offset, length);
+    }
+
+    /**
+     * WriteBuffer#write(ByteBuffer)会将buffer直接加入输出队列，无法确定其释放时机。
+     * 此处将数据拷贝至writeBuffer，调用返回后buffer即可被复用。
+     */
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        writtenBytes += buffer.remaining();
+        if (buffer.hasArray()) {
+            writeBuffer.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        if (copyChunk == null) {
+            copyChunk = new byte[COPY_CHUNK_SIZE];
+        }
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            int length = Math.min(copyChunk.length, source.remaining());
+            source.get(copyChunk, 0, length);
+            writeBuffer.write(copyChunk, 0, length);
+        }
+    }
+
     @Override
     public void flush() {
         writeBuffer.flush();
     }
+
+    /**
+     * 累计写入的字节数。其他线程读取时可能获取到稍旧的值
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
 }
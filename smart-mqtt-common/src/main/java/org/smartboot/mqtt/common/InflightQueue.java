@@ -45,6 +45,18 @@ public class InflightQueue {
         }
     }
 
+    /**
+     * 剩余可用的飞行窗口
+     */
+    public int available() {
+        lock.lock();
+        try {
+            return queue.length - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public long commit(int commitIndex) {
         lock.lock();
         try {
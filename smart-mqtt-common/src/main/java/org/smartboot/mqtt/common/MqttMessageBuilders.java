@@ -2,11 +2,13 @@ package org.smartboot.mqtt.common;
 
 import org.smartboot.mqtt.common.enums.MqttMessageType;
 import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.message.EncodedPublishHeader;
 import org.smartboot.mqtt.common.message.MqttFixedHeader;
 import org.smartboot.mqtt.common.message.MqttPublishMessage;
 import org.smartboot.mqtt.common.message.MqttSubscribeMessage;
 import org.smartboot.mqtt.common.message.MqttTopicSubscription;
 import org.smartboot.mqtt.common.message.MqttUnsubscribeMessage;
+import org.smartboot.mqtt.common.message.payload.MqttPublishPayload;
 import org.smartboot.mqtt.common.message.payload.MqttSubscribePayload;
 import org.smartboot.mqtt.common.message.payload.MqttUnsubscribePayload;
 import org.smartboot.mqtt.common.message.variable.MqttPubQosVariableHeader;
@@ -17,6 +19,7 @@ import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
 import org.smartboot.mqtt.common.message.variable.properties.ReasonProperties;
 import org.smartboot.mqtt.common.message.variable.properties.SubscribeProperties;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,8 +46,10 @@ public final class MqttMessageBuilders {
         private boolean retained;
         private MqttQoS qos;
         private byte[] payload;
+        private ByteBuffer payloadBuffer;
         private int packetId = -1;
         private PublishProperties publishProperties;
+        private EncodedPublishHeader encodedHeader;
 
         PublishBuilder() {
         }
@@ -69,6 +74,14 @@ public final class MqttMessageBuilders {
             return this;
         }
 
+        /**
+         * 以ByteBuffer中剩余的数据作为负载，编码输出前需保证其内容有效
+         */
+        public PublishBuilder payload(ByteBuffer payload) {
+            this.payloadBuffer = payload;
+            return this;
+        }
+
         public void packetId(int packetId) {
             this.packetId = packetId;
         }
@@ -78,13 +91,28 @@ public final class MqttMessageBuilders {
             return this;
         }
 
+        /**
+         * 复用预编码的报头，避免重复编码
+         */
+        public PublishBuilder encodedHeader(EncodedPublishHeader encodedHeader) {
+            this.encodedHeader = encodedHeader;
+            return this;
+        }
+
         public MqttPublishMessage build() {
             MqttFixedHeader mqttFixedHeader = new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, retained, 0);
             if (qos != MqttQoS.AT_LEAST_ONCE && qos != MqttQoS.EXACTLY_ONCE) {
                 packetId = -1;
             }
             MqttPublishVariableHeader mqttVariableHeader = new MqttPublishVariableHeader(packetId, topic, publishProperties);
-            return new MqttPublishMessage(mqttFixedHeader, mqttVariableHeader, payload);
+            MqttPublishMessage message;
+            if (payloadBuffer != null) {
+                message = new MqttPublishMessage(mqttFixedHeader, mqttVariableHeader, new MqttPublishPayload(payloadBuffer));
+            } else {
+                message = new MqttPublishMessage(mqttFixedHeader, mqttVariableHeader, payload);
+            }
+            message.setEncodedHeader(encodedHeader);
+            return message;
         }
     }
 
@@ -1,6 +1,7 @@
 package org.smartboot.mqtt.common;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author 三刀（zhengjunweimail@163.com）
@@ -15,5 +16,28 @@ public interface MqttWriter {
 
     void write(byte[] data) throws IOException;
 
+    /**
+     * 输出buffer中剩余的数据，不改变buffer的position
+     */
+    default void write(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            write(data);
+        }
+    }
+
+    default void write(byte[] data, int offset, int length) throws IOException {
+        if (offset == 0 && length == data.length) {
+            write(data);
+        } else {
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, offset, bytes, 0, length);
+            write(bytes);
+        }
+    }
+
     void flush();
 }
@@ -0,0 +1,91 @@
+package org.smartboot.mqtt.common;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic层级字典，相同的层级名全局共享同一个字符串实例，层级比较时只需比较引用。
+ * <p>
+ * 字典仅弱引用层级实例，实例由持有它的TopicToken、订阅树等保持存活。
+ * Topic被回收、订阅被取消后，不再使用的层级随GC从字典中清除，频繁变化的Topic不会使字典无限增长。
+ * 临时匹配的Topic通过{@link #lookup(String)}查询而不写入。
+ * </p>
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/17
+ */
+public final class TopicLevelDictionary {
+    private static final Map<String, LevelReference> LEVELS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<String> QUEUE = new ReferenceQueue<>();
+    /**
+     * 通配符层级由常量持有，始终存在于字典中
+     */
+    public static final String SINGLE_LEVEL_WILDCARD = intern("+");
+    public static final String MULTI_LEVEL_WILDCARD = intern("#");
+
+    private TopicLevelDictionary() {
+    }
+
+    /**
+     * 获取层级的共享实例，不存在时写入字典
+     */
+    public static String intern(String level) {
+        expungeStaleEntries();
+        String canonical = lookup(level);
+        if (canonical != null) {
+            return canonical;
+        }
+        //字典的key需与共享实例区分，否则key的强引用将使共享实例无法回收
+        LevelReference reference = new LevelReference(new String(level), level, QUEUE);
+        while (true) {
+            LevelReference exists = LEVELS.putIfAbsent(reference.key, reference);
+            if (exists == null) {
+                return level;
+            }
+            canonical = exists.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            //已被回收但尚未清除
+            if (LEVELS.replace(reference.key, exists, reference)) {
+                return level;
+            }
+        }
+    }
+
+    /**
+     * 获取层级的共享实例，不写入字典
+     *
+     * @return 不存在时返回null
+     */
+    public static String lookup(String level) {
+        LevelReference reference = LEVELS.get(level);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * 字典中的层级数，包含已被回收但尚未清除的层级
+     */
+    public static int size() {
+        expungeStaleEntries();
+        return LEVELS.size();
+    }
+
+    private static void expungeStaleEntries() {
+        LevelReference reference;
+        while ((reference = (LevelReference) QUEUE.poll()) != null) {
+            LEVELS.remove(reference.key, reference);
+        }
+    }
+
+    private static class LevelReference extends WeakReference<String> {
+        private final String key;
+
+        LevelReference(String key, String level, ReferenceQueue<String> queue) {
+            super(level, queue);
+            this.key = key;
+        }
+    }
+}
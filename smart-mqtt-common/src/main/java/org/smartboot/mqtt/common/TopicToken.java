@@ -3,11 +3,27 @@ package org.smartboot.mqtt.common;
 import org.smartboot.mqtt.common.util.ValidateUtils;
 
 /**
+ * Topic或主题过滤器按层级拆分后的表示。
+ * <p>
+ * 层级以{@link TopicLevelDictionary}中的共享String实例存放于String数组，同一Topic的各层级节点共享该数组，
+ * 节点仅记录自身所在的层级下标，下一层级的节点在首次访问时创建。
+ * 字典仅弱引用这些实例，由TopicToken等持有方保持存活；全部层级均为共享实例时，层级比较只需比较引用，
+ * 否则（见{@link #lookup(String)}）退化为equals比较。
+ * </p>
+ *
  * @author 三刀（zhengjunweimail@163.com）
  * @version V1.0 , 2022/4/3
  */
 public class TopicToken {
-    private final String node;
+    private final String[] levels;
+    /**
+     * 当前节点在levels中的下标
+     */
+    private final int index;
+    /**
+     * 全部层级是否均为字典中的共享实例
+     */
+    private final boolean interned;
     private String topicFilter;
     private TopicToken nextNode;
 
@@ -17,21 +33,78 @@ public class TopicToken {
     }
 
     public TopicToken(String node, int offset) {
-        int index = node.indexOf('/', offset);
-        if (index == -1) {
-            this.node = node.substring(offset);
-            ValidateUtils.isTrue(this.node.indexOf('#') == -1 || this.node.length() == 1, "invalid topic filter");
-            ValidateUtils.isTrue(this.node.indexOf('+') == -1 || this.node.length() == 1, "invalid topic filter");
-        } else {
-            this.node = node.substring(offset, index);
-            ValidateUtils.isTrue(this.node.indexOf('#') == -1, "invalid topic filter");
-            ValidateUtils.isTrue(this.node.indexOf('+') == -1 || this.node.length() == 1, "invalid topic filter");
-            this.nextNode = new TopicToken(node, index + 1);
+        this(parse(offset == 0 ? node : node.substring(offset), true), 0, true);
+    }
+
+    private TopicToken(String[] levels, int index, boolean interned) {
+        this.levels = levels;
+        this.index = index;
+        this.interned = interned;
+    }
+
+    /**
+     * 创建仅用于匹配的Topic，层级不写入字典，适用于不会长期持有的Topic
+     */
+    public static TopicToken lookup(String topic) {
+        TopicToken topicToken = new TopicToken(parse(topic, false), 0, false);
+        topicToken.topicFilter = topic;
+        return topicToken;
+    }
+
+    private static String[] parse(String node, boolean intern) {
+        int count = 1;
+        int offset = 0;
+        for (int i = 0; i < node.length(); i++) {
+            if (node.charAt(i) == '/') {
+                count++;
+            }
+        }
+        String[] levels = new String[count];
+        for (int i = 0; i < count; i++) {
+            int index = node.indexOf('/', offset);
+            String level;
+            if (index == -1) {
+                level = node.substring(offset);
+                ValidateUtils.isTrue(level.indexOf('#') == -1 || level.length() == 1, "invalid topic filter");
+            } else {
+                level = node.substring(offset, index);
+                ValidateUtils.isTrue(level.indexOf('#') == -1, "invalid topic filter");
+                offset = index + 1;
+            }
+            ValidateUtils.isTrue(level.indexOf('+') == -1 || level.length() == 1, "invalid topic filter");
+            if (intern) {
+                levels[i] = TopicLevelDictionary.intern(level);
+            } else {
+                String canonical = TopicLevelDictionary.lookup(level);
+                levels[i] = canonical == null ? level : canonical;
+            }
         }
+        return levels;
     }
 
     public String getNode() {
-        return node;
+        return levels[index];
+    }
+
+    /**
+     * 获取当前节点之后第i个层级的名称
+     */
+    public String getNode(int i) {
+        return levels[index + i];
+    }
+
+    /**
+     * 当前节点及之后的层级数
+     */
+    public int getLevelCount() {
+        return levels.length - index;
+    }
+
+    /**
+     * 为true时各层级均为{@link TopicLevelDictionary}中的共享实例，可直接比较引用
+     */
+    public boolean isInterned() {
+        return interned;
     }
 
     public String getTopicFilter() {
@@ -39,13 +112,18 @@ public class TopicToken {
     }
 
     public TopicToken getNextNode() {
+        if (nextNode == null && index + 1 < levels.length) {
+            nextNode = new TopicToken(levels, index + 1, interned);
+        }
         return nextNode;
     }
 
     public boolean isWildcards() {
-        if (this.node.equals("+") || this.node.equals("#")) {
-            return true;
+        for (int i = index; i < levels.length; i++) {
+            if (levels[i] == TopicLevelDictionary.SINGLE_LEVEL_WILDCARD || levels[i] == TopicLevelDictionary.MULTI_LEVEL_WILDCARD) {
+                return true;
+            }
         }
-        return nextNode != null && nextNode.isWildcards();
+        return false;
     }
 }
@@ -0,0 +1,115 @@
+package org.smartboot.mqtt.common.message;
+
+import org.smartboot.mqtt.common.MqttWriter;
+import org.smartboot.mqtt.common.enums.MqttMessageType;
+import org.smartboot.mqtt.common.enums.MqttQoS;
+import org.smartboot.mqtt.common.enums.MqttVersion;
+import org.smartboot.mqtt.common.message.variable.MqttPublishVariableHeader;
+import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 预编码的Publish报头(固定报头 + 剩余长度 + 可变报头)，可被多个订阅者共享。
+ * Qos1/2消息输出时仅替换其中2字节的报文标识符。
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/10
+ */
+public final class EncodedPublishHeader {
+    /**
+     * 编码时使用的报文标识符占位值
+     */
+    private static final int PACKET_ID_PLACEHOLDER = 1;
+    private final MqttVersion version;
+    private final byte[] header;
+    /**
+     * 报文标识符在header中的位置，Qos0为-1
+     */
+    private final int packetIdIndex;
+
+    private EncodedPublishHeader(MqttVersion version, byte[] header, int packetIdIndex) {
+        this.version = version;
+        this.header = header;
+        this.packetIdIndex = packetIdIndex;
+    }
+
+    /**
+     * 编码Publish报头，属性为空
+     *
+     * @param payloadLength 负载长度
+     */
+    public static EncodedPublishHeader encode(MqttVersion version, MqttQoS qos, boolean retain, String topic, int payloadLength) {
+        boolean hasPacketId = qos == MqttQoS.AT_LEAST_ONCE || qos == MqttQoS.EXACTLY_ONCE;
+        MqttVariableHeader<PublishProperties> variableHeader = new MqttPublishVariableHeader(hasPacketId ? PACKET_ID_PLACEHOLDER : -1, topic, version == MqttVersion.MQTT_5 ? new PublishProperties() : null);
+        HeaderWriter writer = new HeaderWriter();
+        try {
+            MqttCodecUtil.writeFixedHeader(writer, new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, retain, 0));
+            MqttCodecUtil.writeVariableLengthInt(writer, variableHeader.preEncode() + payloadLength);
+            int packetIdIndex = hasPacketId ? writer.size() + MqttCodecUtil.encodeUTF8(topic).length : -1;
+            variableHeader.writeTo(writer);
+            return new EncodedPublishHeader(version, writer.toByteArray(), packetIdIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 输出报头，并替换报文标识符
+     */
+    public void writeTo(MqttWriter mqttWriter, int packetId) throws IOException {
+        if (packetIdIndex < 0) {
+            mqttWriter.write(header, 0, header.length);
+            return;
+        }
+        mqttWriter.write(header, 0, packetIdIndex);
+        mqttWriter.writeShort((short) packetId);
+        mqttWriter.write(header, packetIdIndex + 2, header.length - packetIdIndex - 2);
+    }
+
+    public MqttVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * 报头能否用于指定版本的报文。MQTT 3.x各版本的PUBLISH报头编码一致，仅MQTT 5包含属性
+     */
+    public boolean isCompatible(MqttVersion version) {
+        return version != null && (this.version == MqttVersion.MQTT_5) == (version == MqttVersion.MQTT_5);
+    }
+
+    private static class HeaderWriter extends ByteArrayOutputStream implements MqttWriter {
+        HeaderWriter() {
+            super(64);
+        }
+
+        @Override
+        public void writeByte(byte b) {
+            write(b);
+        }
+
+        @Override
+        public void writeShort(short data) {
+            write(data >>> 8);
+            write(data);
+        }
+
+        @Override
+        public void writeInt(int data) {
+            write(data >>> 24);
+            write(data >>> 16);
+            write(data >>> 8);
+            write(data);
+        }
+
+        @Override
+        public void write(byte[] data) {
+            write(data, 0, data.length);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
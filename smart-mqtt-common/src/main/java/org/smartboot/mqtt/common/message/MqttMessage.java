@@ -52,7 +52,7 @@ public abstract class MqttMessage extends ToString {
 
     }
 
-    public final void write(MqttWriter mqttWriter) throws IOException {
+    public void write(MqttWriter mqttWriter) throws IOException {
         MqttCodecUtil.writeFixedHeader(mqttWriter, getFixedHeader());
         MqttVariableHeader variableHeader = getVariableHeader();
         MqttPayload mqttPayload = getPayload();
@@ -1,12 +1,18 @@
 package org.smartboot.mqtt.common.message;
 
+import org.smartboot.mqtt.common.MqttWriter;
 import org.smartboot.mqtt.common.enums.MqttVersion;
+import org.smartboot.mqtt.common.message.payload.MqttPayload;
 import org.smartboot.mqtt.common.message.payload.MqttPublishPayload;
+import org.smartboot.mqtt.common.message.payload.ReferenceCountedBuffer;
 import org.smartboot.mqtt.common.message.variable.MqttPublishVariableHeader;
 import org.smartboot.mqtt.common.message.variable.properties.PublishProperties;
 import org.smartboot.mqtt.common.util.MqttUtil;
+import org.smartboot.socket.buffer.BufferPage;
+import org.smartboot.socket.buffer.VirtualBuffer;
 import org.smartboot.socket.util.DecoderException;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -16,6 +22,10 @@ import java.nio.ByteBuffer;
 public class MqttPublishMessage extends MqttVariableMessage<MqttPublishVariableHeader> {
     private static final MqttPublishPayload EMPTY_BYTES = new MqttPublishPayload(new byte[0]);
     private MqttPublishPayload payload;
+    /**
+     * 预编码的报头，为null时按常规方式编码
+     */
+    private EncodedPublishHeader encodedHeader;
 
     public MqttPublishMessage(MqttFixedHeader mqttFixedHeader) {
         super(mqttFixedHeader);
@@ -27,6 +37,12 @@ public class MqttPublishMessage extends MqttVariableMessage<MqttPublishVariableH
         this.payload = new MqttPublishPayload(payload);
     }
 
+    public MqttPublishMessage(MqttFixedHeader mqttFixedHeader, MqttPublishVariableHeader mqttPublishVariableHeader, MqttPublishPayload payload) {
+        super(mqttFixedHeader);
+        setVariableHeader(mqttPublishVariableHeader);
+        this.payload = payload;
+    }
+
     @Override
     public void decodeVariableHeader0(ByteBuffer buffer) {
         final String decodedTopic = MqttCodecUtil.decodeUTF8(buffer);
@@ -63,9 +79,54 @@ public class MqttPublishMessage extends MqttVariableMessage<MqttPublishVariableH
         }
     }
 
+    /**
+     * 将负载读取至池化内存，避免为每条消息分配堆内存
+     */
+    public void decodePlayLoad(ByteBuffer buffer, BufferPage bufferPage) {
+        int readLength = fixedHeader.remainingLength() - getVariableHeaderLength();
+        if (readLength == 0) {
+            payload = EMPTY_BYTES;
+            return;
+        }
+        VirtualBuffer virtualBuffer = bufferPage.allocate(readLength);
+        ByteBuffer data = virtualBuffer.buffer();
+        data.clear();
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + readLength);
+        data.put(buffer);
+        buffer.limit(limit);
+        data.flip();
+        payload = new MqttPublishPayload(new ReferenceCountedBuffer(virtualBuffer, data));
+    }
+
+    /**
+     * 以池化内存中的数据作为负载，当前消息接管其引用
+     */
+    public void decodePlayLoad(ReferenceCountedBuffer pooledBuffer) {
+        payload = new MqttPublishPayload(pooledBuffer);
+    }
+
+
+    @Override
+    public void write(MqttWriter mqttWriter) throws IOException {
+        if (encodedHeader == null || !encodedHeader.isCompatible(version)) {
+            super.write(mqttWriter);
+            return;
+        }
+        encodedHeader.writeTo(mqttWriter, variableHeader.getPacketId());
+        MqttPayload mqttPayload = payload;
+        mqttPayload.writeTo(mqttWriter);
+    }
 
     @Override
     public MqttPublishPayload getPayload() {
         return payload;
     }
+
+    /**
+     * 设置预编码的报头，其Qos、retain及负载长度需与当前消息一致
+     */
+    public void setEncodedHeader(EncodedPublishHeader encodedHeader) {
+        this.encodedHeader = encodedHeader;
+    }
 }
@@ -3,29 +3,106 @@ package org.smartboot.mqtt.common.message.payload;
 import org.smartboot.mqtt.common.MqttWriter;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author 三刀（zhengjunweimail@163.com）
  * @version V1.0 , 2023/1/13
  */
 public class MqttPublishPayload extends MqttPayload {
-    private final byte[] payload;
+    private byte[] payload;
+    /**
+     * 堆外存储的负载数据，仅在编码输出时读取
+     */
+    private final ByteBuffer payloadBuffer;
+    /**
+     * 池化内存中的负载，为null时负载不依赖池化内存
+     */
+    private final ReferenceCountedBuffer pooledBuffer;
 
     public MqttPublishPayload(byte[] payload) {
         this.payload = payload;
+        this.payloadBuffer = null;
+        this.pooledBuffer = null;
+    }
+
+    public MqttPublishPayload(ByteBuffer payloadBuffer) {
+        this.payloadBuffer = payloadBuffer;
+        this.pooledBuffer = null;
+    }
+
+    /**
+     * 引用池化内存中的负载，当前消息持有其创建时的引用
+     */
+    public MqttPublishPayload(ReferenceCountedBuffer pooledBuffer) {
+        this.payloadBuffer = pooledBuffer.buffer();
+        this.pooledBuffer = pooledBuffer;
     }
 
     @Override
     protected int preEncode() {
-        return payload.length;
+        return getLength();
     }
 
     @Override
     protected void writeTo(MqttWriter mqttWriter) throws IOException {
-        mqttWriter.write(payload);
+        if (payload != null) {
+            mqttWriter.write(payload);
+        } else {
+            mqttWriter.write(payloadBuffer.duplicate());
+        }
     }
 
+    /**
+     * 获取负载数据。池化内存中的负载会拷贝至堆内，需在release之前调用
+     */
     public byte[] getPayload() {
+        if (payload == null) {
+            checkReadable();
+            byte[] bytes = new byte[payloadBuffer.remaining()];
+            payloadBuffer.duplicate().get(bytes);
+            payload = bytes;
+        }
         return payload;
     }
+
+    /**
+     * 获取负载数据视图，不产生拷贝
+     */
+    public ByteBuffer getPayloadBuffer() {
+        if (payload != null) {
+            return ByteBuffer.wrap(payload);
+        }
+        checkReadable();
+        return payloadBuffer.duplicate();
+    }
+
+    /**
+     * 池化内存归还后其中的数据可能已被其他报文覆盖
+     */
+    private void checkReadable() {
+        if (pooledBuffer != null && pooledBuffer.isReleased()) {
+            throw new IllegalStateException("pooled payload has been released");
+        }
+    }
+
+    public int getLength() {
+        return payload != null ? payload.length : payloadBuffer.remaining();
+    }
+
+    /**
+     * 负载所在的池化内存，为null表示负载不依赖池化内存
+     */
+    public ReferenceCountedBuffer getPooledBuffer() {
+        return pooledBuffer;
+    }
+
+    /**
+     * 释放当前消息对池化内存的引用，之后不可再读取负载
+     */
+    public void release() {
+        if (pooledBuffer != null) {
+            pooledBuffer.release();
+        }
+    }
 }
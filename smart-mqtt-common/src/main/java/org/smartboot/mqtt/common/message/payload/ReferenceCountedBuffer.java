@@ -0,0 +1,72 @@
+package org.smartboot.mqtt.common.message.payload;
+
+import org.smartboot.socket.buffer.VirtualBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 引用计数管理的池化内存，所有引用释放后归还至BufferPagePool
+ *
+ * @author 三刀（zhengjunweimail@163.com）
+ * @version V1.0 , 2023/2/14
+ */
+public final class ReferenceCountedBuffer {
+    private final VirtualBuffer virtualBuffer;
+    /**
+     * 有效数据视图
+     */
+    private final ByteBuffer buffer;
+    /**
+     * 创建方持有1个引用
+     */
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * @param buffer virtualBuffer中的有效数据
+     */
+    public ReferenceCountedBuffer(VirtualBuffer virtualBuffer, ByteBuffer buffer) {
+        this.virtualBuffer = virtualBuffer;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 获取数据视图，仅在持有引用期间有效
+     */
+    public ByteBuffer buffer() {
+        return buffer.duplicate();
+    }
+
+    public int length() {
+        return buffer.remaining();
+    }
+
+    /**
+     * 增加引用
+     *
+     * @return false:内存已归还，不可再读取
+     */
+    public boolean retain() {
+        int cnt;
+        do {
+            cnt = refCnt.get();
+            if (cnt == 0) {
+                return false;
+            }
+        } while (!refCnt.compareAndSet(cnt, cnt + 1));
+        return true;
+    }
+
+    /**
+     * 内存是否已归还
+     */
+    public boolean isReleased() {
+        return refCnt.get() == 0;
+    }
+
+    public void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            virtualBuffer.clean();
+        }
+    }
+}
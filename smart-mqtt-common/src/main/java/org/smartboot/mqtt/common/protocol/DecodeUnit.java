@@ -2,10 +2,16 @@ package org.smartboot.mqtt.common.protocol;
 
 import org.smartboot.mqtt.common.message.MqttMessage;
 
+import org.smartboot.socket.buffer.VirtualBuffer;
+
 import java.nio.ByteBuffer;
 
 class DecodeUnit {
     DecoderState state;
     MqttMessage mqttMessage;
     ByteBuffer disposableBuffer;
+    /**
+     * disposableBuffer所属的池化内存，未启用池化时为null
+     */
+    VirtualBuffer disposableVirtualBuffer;
 }
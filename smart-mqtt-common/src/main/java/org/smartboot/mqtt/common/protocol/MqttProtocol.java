@@ -8,8 +8,12 @@ import org.smartboot.mqtt.common.enums.MqttVersion;
 import org.smartboot.mqtt.common.message.MqttCodecUtil;
 import org.smartboot.mqtt.common.message.MqttFixedHeader;
 import org.smartboot.mqtt.common.message.MqttMessage;
+import org.smartboot.mqtt.common.message.MqttPublishMessage;
+import org.smartboot.mqtt.common.message.payload.ReferenceCountedBuffer;
 import org.smartboot.mqtt.common.util.ValidateUtils;
 import org.smartboot.socket.Protocol;
+import org.smartboot.socket.buffer.BufferPage;
+import org.smartboot.socket.buffer.BufferPagePool;
 import org.smartboot.socket.transport.AioSession;
 import org.smartboot.socket.util.AttachKey;
 import org.smartboot.socket.util.Attachment;
@@ -27,16 +31,46 @@ import static org.smartboot.mqtt.common.protocol.DecoderState.*;
 public class MqttProtocol implements Protocol<MqttMessage> {
     private static final Logger logger = LoggerFactory.getLogger(MqttProtocol.class);
     private final int maxBytesInMessage;
+    /**
+     * PUBLISH负载所使用的池化内存，为null时负载存放于堆内
+     */
+    private final BufferPage bufferPage;
 
     public static final AttachKey<MqttVersion> MQTT_VERSION_ATTACH_KEY = AttachKey.valueOf("mqtt_version");
     private static final AttachKey<DecodeUnit> DECODE_UNIT_ATTACH_KEY = AttachKey.valueOf("decodeUnit");
 
 
     public MqttProtocol(int maxBytesInMessage) {
+        this(maxBytesInMessage, null);
+    }
+
+    /**
+     * PUBLISH负载解码至池化内存，消息处理完毕后需调用MqttPublishPayload#release释放
+     */
+    public MqttProtocol(int maxBytesInMessage, BufferPagePool bufferPagePool) {
         this.maxBytesInMessage = maxBytesInMessage;
+        this.bufferPage = bufferPagePool == null ? null : bufferPagePool.allocateBufferPage();
     }
 
 
+    /**
+     * 释放连接未解码完成的报文所占用的池化内存，连接关闭时调用
+     */
+    public static void release(AioSession session) {
+        Attachment attachment = session.getAttachment();
+        DecodeUnit unit = attachment == null ? null : attachment.get(DECODE_UNIT_ATTACH_KEY);
+        if (unit == null) {
+            return;
+        }
+        if (unit.disposableVirtualBuffer != null) {
+            unit.disposableVirtualBuffer.clean();
+        }
+        unit.disposableBuffer = null;
+        unit.disposableVirtualBuffer = null;
+        unit.mqttMessage = null;
+        unit.state = READ_FIXED_HEADER;
+    }
+
     @Override
     public MqttMessage decode(ByteBuffer buffer, AioSession session) {
         Attachment attachment = session.getAttachment();
@@ -110,11 +144,19 @@ public class MqttProtocol implements Protocol<MqttMessage> {
                 ByteBuffer payloadBuffer;
                 if (remainingLength > buffer.capacity()) {
                     if (unit.disposableBuffer == null) {
-                        payloadBuffer = unit.disposableBuffer = ByteBuffer.allocate(remainingLength);
+                        if (bufferPage == null) {
+                            payloadBuffer = unit.disposableBuffer = ByteBuffer.allocate(remainingLength);
+                        } else {
+                            unit.disposableVirtualBuffer = bufferPage.allocate(remainingLength);
+                            payloadBuffer = unit.disposableBuffer = unit.disposableVirtualBuffer.buffer();
+                            payloadBuffer.clear();
+                        }
                     } else {
                         payloadBuffer = unit.disposableBuffer;
                         payloadBuffer.compact();
                     }
+                    //池化内存的容量可能大于报文长度，不可读入后续报文的数据
+                    payloadBuffer.limit(remainingLength);
 
                     if (payloadBuffer.remaining() >= buffer.remaining()) {
                         payloadBuffer.put(buffer);
@@ -141,12 +183,27 @@ public class MqttProtocol implements Protocol<MqttMessage> {
             }
 
             case READ_PAYLOAD: {
+                boolean pooledPublish = bufferPage != null && unit.mqttMessage instanceof MqttPublishMessage;
                 if (unit.disposableBuffer == null) {
-                    unit.mqttMessage.decodePlayLoad(buffer);
+                    if (pooledPublish) {
+                        ((MqttPublishMessage) unit.mqttMessage).decodePlayLoad(buffer, bufferPage);
+                    } else {
+                        unit.mqttMessage.decodePlayLoad(buffer);
+                    }
                 } else {
-                    unit.mqttMessage.decodePlayLoad(unit.disposableBuffer);
+                    if (pooledPublish) {
+                        //负载直接引用大报文的池化缓冲区，无需再次拷贝
+                        ((MqttPublishMessage) unit.mqttMessage).decodePlayLoad(new ReferenceCountedBuffer(unit.disposableVirtualBuffer, unit.disposableBuffer.slice()));
+                        unit.disposableBuffer.position(unit.disposableBuffer.limit());
+                    } else {
+                        unit.mqttMessage.decodePlayLoad(unit.disposableBuffer);
+                        if (unit.disposableVirtualBuffer != null) {
+                            unit.disposableVirtualBuffer.clean();
+                        }
+                    }
                     ValidateUtils.isTrue(unit.disposableBuffer.remaining() == 0, "decode error");
                     unit.disposableBuffer = null;
+                    unit.disposableVirtualBuffer = null;
                 }
                 unit.state = FINISH;
                 break;
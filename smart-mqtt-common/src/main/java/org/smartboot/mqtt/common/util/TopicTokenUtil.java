@@ -1,6 +1,6 @@
 package org.smartboot.mqtt.common.util;
 
-import org.apache.commons.lang.StringUtils;
+import org.smartboot.mqtt.common.TopicLevelDictionary;
 import org.smartboot.mqtt.common.TopicToken;
 
 /**
@@ -12,16 +12,31 @@ public class TopicTokenUtil {
         if (subTopicToken == null) {
             return pubTopicToken == null;
         }
-        //合法的#通配符必然存在于末端
-        if ("#".equals(subTopicToken.getNode())) {
-            return true;
-        }
-        if ("+".equals(subTopicToken.getNode())) {
-            return pubTopicToken != null && match(pubTopicToken.getNextNode(), subTopicToken.getNextNode());
+        int pubCount = pubTopicToken == null ? 0 : pubTopicToken.getLevelCount();
+        int subCount = subTopicToken.getLevelCount();
+        for (int i = 0; i < subCount; i++) {
+            String subLevel = subTopicToken.getNode(i);
+            //合法的#通配符必然存在于末端
+            if (subLevel == TopicLevelDictionary.MULTI_LEVEL_WILDCARD) {
+                return true;
+            }
+            if (i == pubCount) {
+                return false;
+            }
+            if (subLevel != TopicLevelDictionary.SINGLE_LEVEL_WILDCARD && !levelEquals(pubTopicToken, subTopicToken, i)) {
+                return false;
+            }
         }
-        if (pubTopicToken == null || !StringUtils.equals(pubTopicToken.getNode(), subTopicToken.getNode())) {
-            return false;
+        return pubCount == subCount;
+    }
+
+    private static boolean levelEquals(TopicToken pubTopicToken, TopicToken subTopicToken, int i) {
+        String pubLevel = pubTopicToken.getNode(i);
+        String subLevel = subTopicToken.getNode(i);
+        if (pubLevel == subLevel) {
+            return true;
         }
-        return match(pubTopicToken.getNextNode(), subTopicToken.getNextNode());
+        //存在未写入字典的层级时按内容比较
+        return !(pubTopicToken.isInterned() && subTopicToken.isInterned()) && pubLevel.equals(subLevel);
     }
 }